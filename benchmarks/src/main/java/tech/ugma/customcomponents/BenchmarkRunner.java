@@ -0,0 +1,48 @@
+package tech.ugma.customcomponents;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, the same as JMH's own main class would, except that unless you say otherwise the
+ * results are written as JSON to jmh-result.json. That way every run leaves behind something that can be
+ * compared with the runs from earlier releases.
+ * <p>
+ * Any of JMH's usual command line options work, e.g.
+ * <pre>
+ * <code>java -jar target/benchmarks.jar ItemModelBenchmark -p size=1000,10000 -rff 0.8.json</code>
+ * </pre>
+ */
+public class BenchmarkRunner {
+
+    /**
+     * Where the results go if the command line doesn't say.
+     */
+    private static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+
+        if (commandLine.shouldHelp()) {
+            commandLine.showHelp();
+            return;
+        }
+        if (commandLine.shouldList()) {
+            new Runner(commandLine).list();
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            options.result(DEFAULT_RESULT_FILE);
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,31 @@
+package tech.ugma.customcomponents;
+
+import com.sun.javafx.application.PlatformImpl;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Starts JavaFX for the benchmarks that need it. Controls can't even be made until the toolkit is running
+ * (they look up the default stylesheet when they're made), but there's no Application to start it for us.
+ */
+final class FxToolkit {
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private FxToolkit() {
+    }
+
+    /**
+     * Starts the toolkit, if it isn't running yet, and waits for it.
+     */
+    static void start() throws InterruptedException {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+
+        CountDownLatch latch = new CountDownLatch(1);
+        PlatformImpl.startup(latch::countDown);
+        latch.await();
+    }
+}
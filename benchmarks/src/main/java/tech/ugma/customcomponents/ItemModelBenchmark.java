@@ -0,0 +1,125 @@
+package tech.ugma.customcomponents;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many additions and removals per millisecond the item model can keep in order, for lists of 1k to 1M
+ * items, with and without alphabetical sorting.
+ * <p>
+ * Every benchmark puts the list back the way it found it, so the list stays the same size throughout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ItemModelBenchmark {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int size;
+
+    @Param({"true", "false"})
+    public boolean sortAlphabetically;
+
+    /**
+     * How many items go in (and come back out) per batch.
+     */
+    private static final int BATCH_SIZE = 100;
+
+    private ObservableList<String> items;
+
+    private AddRemoveItemModel<String> model;
+
+    /**
+     * Items that aren't in the list yet, taken in turn.
+     */
+    private String[] newcomers;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+
+        List<String> initial = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            initial.add(randomItem(random));
+        }
+        items = FXCollections.observableArrayList(initial);
+        model = new AddRemoveItemModel<>(items);
+        model.setSortAlphabetically(sortAlphabetically);
+
+        newcomers = new String[1024];
+        for (int i = 0; i < newcomers.length; i++) {
+            newcomers[i] = randomItem(random);
+        }
+    }
+
+    /**
+     * Adds an item straight into its place, then takes it back out.
+     */
+    @Benchmark
+    public void addItemThenRemove() {
+        String item = nextNewcomer();
+        model.addItem(item);
+        items.remove(item);
+    }
+
+    /**
+     * Adds an item at the end of the list, the way code that doesn't know about addItem does, so the model
+     * has to notice it and move it into place. Then takes it back out.
+     */
+    @Benchmark
+    public void addToListThenRemove() {
+        String item = nextNewcomer();
+        items.add(item);
+        items.remove(item);
+    }
+
+    /**
+     * Adds a whole batch of items at once, then removes them all at once.
+     */
+    @Benchmark
+    public void updateItemsBatch() {
+        List<String> batch = Arrays.asList(Arrays.copyOfRange(newcomers, 0, BATCH_SIZE));
+        model.updateItems(list -> list.addAll(batch));
+        model.updateItems(list -> list.removeAll(batch));
+    }
+
+    private String nextNewcomer() {
+        String item = newcomers[next];
+        next = (next + 1) % newcomers.length;
+        return item;
+    }
+
+    /**
+     * @return something that looks like a name, with a number on the end of it (like "Vendor 123")
+     */
+    static String randomItem(Random random) {
+        char[] word = new char[4 + random.nextInt(8)];
+        word[0] = (char) ('A' + random.nextInt(26));
+        for (int i = 1; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(26));
+        }
+        return new String(word) + " " + random.nextInt(10000);
+    }
+}
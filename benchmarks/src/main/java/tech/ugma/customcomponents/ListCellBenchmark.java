@@ -0,0 +1,105 @@
+package tech.ugma.customcomponents;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What a popup cell costs: making one, and pointing one at a different item (which is what happens to
+ * every visible cell when the popup is scrolled).
+ * <p>
+ * The cells aren't in a scene, so they can be worked on right here on the benchmark thread; what's being
+ * measured is the cell's own work, not layout or rendering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListCellBenchmark {
+
+    private static final int ITEM_COUNT = 1000;
+
+    private AddRemoveComboBox<String> comboBox;
+
+    /**
+     * A list of different items, and a list that's the same item over and over.
+     */
+    private ListView<String> listView;
+    private ListView<String> sameItemListView;
+
+    private ListCell<String> cell;
+    private ListCell<String> sameItemCell;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws InterruptedException {
+        FxToolkit.start();
+
+        Random random = new Random(42);
+        ObservableList<String> items = FXCollections.observableArrayList();
+        for (int i = 0; i < ITEM_COUNT; i++) {
+            items.add(ItemModelBenchmark.randomItem(random));
+        }
+        comboBox = new AddRemoveComboBox<>(items);
+
+        listView = new ListView<>(items);
+        sameItemListView = new ListView<>(FXCollections.observableArrayList(Collections.nCopies(ITEM_COUNT, items.get(0))));
+
+        cell = newCell(listView);
+        sameItemCell = newCell(sameItemListView);
+    }
+
+    @Benchmark
+    public ListCell<String> createCell() {
+        return comboBox.getCellFactory().call(listView);
+    }
+
+    /**
+     * Moves the cell to the next row, which holds a different item.
+     */
+    @Benchmark
+    public ListCell<String> updateCellToNewItem() {
+        cell.updateIndex(nextIndex());
+        return cell;
+    }
+
+    /**
+     * Moves the cell to the next row, which holds the item the cell is already showing.
+     */
+    @Benchmark
+    public ListCell<String> updateCellToSameItem() {
+        sameItemCell.updateIndex(nextIndex());
+        return sameItemCell;
+    }
+
+    private ListCell<String> newCell(ListView<String> listView) {
+        ListCell<String> newCell = comboBox.getCellFactory().call(listView);
+        newCell.updateListView(listView);
+        return newCell;
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (next + 1) % ITEM_COUNT;
+        return i;
+    }
+}
@@ -0,0 +1,123 @@
+package tech.ugma.customcomponents;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * What comparing items costs: the way it used to be done ({@code Collator.getInstance().compare(a, b)} on
+ * every comparison), with one shared Collator, and with the cached sort keys the combo box uses now. Plus
+ * what a full sort of the list costs each way.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortKeyBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean naturalOrdering;
+
+    private String[] items;
+
+    private Collator collator;
+
+    private SortKeyCache<String> sortKeys;
+
+    /**
+     * Which pair of items gets compared next.
+     */
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        items = new String[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = ItemModelBenchmark.randomItem(random);
+        }
+
+        collator = Collator.getInstance();
+
+        sortKeys = new SortKeyCache<>(Function.identity());
+        sortKeys.setNaturalOrdering(naturalOrdering);
+        //Warm the cache up, the same as it would be after the list's first sort
+        for (String item : items) {
+            sortKeys.keyFor(item);
+        }
+    }
+
+    @Benchmark
+    public int compareWithCollatorPerComparison() {
+        int i = nextIndex();
+        return Collator.getInstance().compare(items[i], items[(i + 1) % size]);
+    }
+
+    @Benchmark
+    public int compareWithSharedCollator() {
+        int i = nextIndex();
+        return collator.compare(items[i], items[(i + 1) % size]);
+    }
+
+    @Benchmark
+    public int compareWithCachedSortKeys() {
+        int i = nextIndex();
+        return sortKeys.compare(items[i], items[(i + 1) % size]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String[] sortWithCollatorPerComparison() {
+        String[] sorted = items.clone();
+        Arrays.sort(sorted, (a, b) -> Collator.getInstance().compare(a, b));
+        return sorted;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String[] sortWithCachedSortKeys() {
+        String[] sorted = items.clone();
+        Arrays.sort(sorted, sortKeys::compare);
+        return sorted;
+    }
+
+    /**
+     * Making every item's sort key from scratch, which is what happens when the sorting rules change.
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SortKeyCache<String> buildSortKeys() {
+        SortKeyCache<String> fresh = new SortKeyCache<>(Function.identity());
+        fresh.setNaturalOrdering(naturalOrdering);
+        for (String item : items) {
+            fresh.keyFor(item);
+        }
+        return fresh;
+    }
+
+    private int nextIndex() {
+        int i = next;
+        next = (next + 1) % size;
+        return i;
+    }
+}
@@ -0,0 +1,425 @@
+package tech.ugma.customcomponents;
+
+import com.sun.javafx.tk.Toolkit;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.Node;
+import javafx.scene.Scene;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.layout.StackPane;
+import javafx.scene.layout.VBox;
+import javafx.stage.Stage;
+import javafx.util.Callback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Measures the scene graph side of AddRemoveComboBox, which the JMH benchmarks can't: opening the popup,
+ * scrolling it, and adding and removing items while it's open, for lists of growing size.
+ * <p>
+ * It runs JavaFX headless (on Monocle), so it works on a plain Linux box with no display. For each list
+ * size it records
+ * <ul>
+ * <li>how long {@code show()} takes to open the popup (that's when the popup gets its CSS and first layout),</li>
+ * <li>how many layout passes the popup's ListView goes through,</li>
+ * <li>how many pulses there are,</li>
+ * <li>how many times a cell's updateItem is called, and</li>
+ * <li>how many cells are made.</li>
+ * </ul>
+ * Removals are measured twice: once resized in place, the way the combo box does it, and once by closing and
+ * reopening the popup, the way it used to, so the two can be compared.
+ * The results are printed, and written as JSON (to ui-performance.json, or wherever the first argument
+ * says). Then they're checked against the limits in ui-performance-thresholds.properties; if any of them
+ * is over its limit, this throws, which fails the build. (A limit can be overridden with a system property,
+ * e.g. {@code -Dui.threshold.popupOpenMillis=800}.)
+ * <p>
+ * Run it with {@code mvn verify -P ui-performance} in the benchmarks directory.
+ */
+@SuppressWarnings("Convert2Lambda")
+public class UiPerformanceHarness {
+
+    private static final int[] SIZES = {100, 1000, 10000, 100000};
+
+    /**
+     * How many times the popup is scrolled, and how many items are added (and then removed) while it's open.
+     */
+    private static final int SCROLL_STEPS = 20;
+    private static final int CHANGES = 10;
+
+    /**
+     * How long things have to be quiet (no pulses) before we decide JavaFX is done with what we asked of it.
+     */
+    private static final long IDLE_MILLIS = 100;
+
+    /**
+     * How long to wait for things to go quiet before giving up and carrying on anyway.
+     */
+    private static final long MAX_WAIT_MILLIS = 5000;
+
+    private static final String THRESHOLDS = "/ui-performance-thresholds.properties";
+
+    /**
+     * What's been counted so far. Only touched on the JavaFX Application Thread.
+     */
+    private static int pulses;
+    private static int layoutPasses;
+    private static int updateItemCalls;
+    private static int cellsCreated;
+
+    public static void main(String[] args) throws Exception {
+        goHeadless();
+        FxToolkit.start();
+        Toolkit.getToolkit().addSceneTkPulseListener(() -> pulses++);
+
+        Map<Integer, Map<String, Double>> results = new LinkedHashMap<>();
+        try {
+            for (int size : SIZES) {
+                results.put(size, measure(size));
+            }
+        } finally {
+            Platform.exit();
+        }
+
+        print(results);
+        writeJson(results, Paths.get(args.length > 0 ? args[0] : "ui-performance.json"));
+
+        List<String> overLimit = check(results, loadThresholds());
+        if (!overLimit.isEmpty()) {
+            throw new IllegalStateException("UI performance has regressed:\n    " + String.join("\n    ", overLimit));
+        }
+    }
+
+    /**
+     * Tells JavaFX to use Monocle's headless platform (unless told otherwise on the command line).
+     */
+    private static void goHeadless() {
+        setIfAbsent("glass.platform", "Monocle");
+        setIfAbsent("monocle.platform", "Headless");
+        setIfAbsent("prism.order", "sw");
+        setIfAbsent("java.awt.headless", "true");
+    }
+
+    private static void setIfAbsent(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    /**
+     * Puts a combo box with {@code size} items on screen, and measures opening, scrolling and changing it.
+     */
+    private static Map<String, Double> measure(int size) throws Exception {
+        Map<String, Double> measurements = new LinkedHashMap<>();
+
+        Random random = new Random(42);
+        List<String> initial = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            initial.add("Item " + random.nextInt(Integer.MAX_VALUE));
+        }
+
+        AddRemoveComboBox<String> comboBox = onFx(new Callable<AddRemoveComboBox<String>>() {
+            @Override
+            public AddRemoveComboBox<String> call() {
+                AddRemoveComboBox<String> comboBox = new AddRemoveComboBox<>(FXCollections.observableArrayList(initial));
+                comboBox.setSortAlphabetically(true);
+                comboBox.setCellFactory(countingCellFactory(comboBox));
+
+                //The real skin isn't made until the combo box is first used. Make it now, so that opening the
+                //popup is measured on its own, the same as it always has been.
+                comboBox.installSkin();
+
+                //Count every layout pass of the popup's ListView
+                ListView<?> listView = getListView(comboBox);
+                listView.needsLayoutProperty().addListener((observable, wasNeeded, isNeeded) -> {
+                    if (wasNeeded && !isNeeded) {
+                        layoutPasses++;
+                    }
+                });
+
+                Stage stage = new Stage();
+                stage.setScene(new Scene(new StackPane(comboBox), 400, 300));
+                stage.show();
+                return comboBox;
+            }
+        });
+        waitUntilIdle();
+
+        //Opening the popup
+        resetCounts();
+        double openMillis = onFx(new Callable<Double>() {
+            @Override
+            public Double call() {
+                long start = System.nanoTime();
+                comboBox.show();
+                return (System.nanoTime() - start) / 1e6;
+            }
+        });
+        waitUntilIdle();
+        measurements.put("popupOpenMillis", openMillis);
+        recordCounts(measurements, "popupOpen", 1);
+
+        //Scrolling through the popup, a big jump at a time
+        resetCounts();
+        for (int step = 1; step <= SCROLL_STEPS; step++) {
+            final int index = (int) ((long) size * step / (SCROLL_STEPS + 1));
+            onFx(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    getListView(comboBox).scrollTo(index);
+                    return null;
+                }
+            });
+            waitUntilIdle();
+        }
+        recordCounts(measurements, "scroll", SCROLL_STEPS);
+
+        //Adding items while the popup's open, then removing them the way the remove button does
+        resetCounts();
+        List<String> added = addItems(comboBox, "New item ");
+        removeItems(comboBox, added, false);
+        recordCounts(measurements, "change", 2 * CHANGES);
+
+        //Removals on their own: resized in place...
+        added = addItems(comboBox, "Removed item ");
+        resetCounts();
+        removeItems(comboBox, added, false);
+        recordCounts(measurements, "removal", CHANGES);
+
+        //...and the way it used to be done, by closing and reopening the popup after each one
+        added = addItems(comboBox, "Reopened item ");
+        resetCounts();
+        removeItems(comboBox, added, true);
+        recordCounts(measurements, "reopenRemoval", CHANGES);
+
+        onFx(new Callable<Void>() {
+            @Override
+            public Void call() {
+                comboBox.hide();
+                comboBox.getScene().getWindow().hide();
+                return null;
+            }
+        });
+        waitUntilIdle();
+
+        return measurements;
+    }
+
+    /**
+     * Adds {@link #CHANGES} items while the popup's open, waiting for each to be laid out.
+     *
+     * @return the items added
+     */
+    private static List<String> addItems(AddRemoveComboBox<String> comboBox, String prefix) throws Exception {
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < CHANGES; i++) {
+            String item = prefix + i;
+            added.add(item);
+            onFx(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    comboBox.addItem(item);
+                    comboBox.refreshPopup();
+                    return null;
+                }
+            });
+            waitUntilIdle();
+        }
+        return added;
+    }
+
+    /**
+     * Removes items one at a time while the popup's open, waiting for each to be laid out.
+     *
+     * @param reopen if true, the popup is closed and reopened after each removal instead of being resized
+     */
+    private static void removeItems(AddRemoveComboBox<String> comboBox, List<String> items, boolean reopen)
+            throws Exception {
+        for (String item : items) {
+            onFx(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    comboBox.commitRemoval(item);
+                    if (reopen) {
+                        comboBox.hide();
+                        comboBox.show();
+                    } else {
+                        comboBox.refreshPopup();
+                    }
+                    return null;
+                }
+            });
+            waitUntilIdle();
+        }
+    }
+
+    /**
+     * Makes the same cells the combo box would, except that they count how often they're made and updated.
+     */
+    private static Callback<ListView<String>, ListCell<String>> countingCellFactory(AddRemoveComboBox<String> comboBox) {
+        return new Callback<ListView<String>, ListCell<String>>() {
+            @Override
+            public ListCell<String> call(ListView<String> listView) {
+                cellsCreated++;
+
+                AddRemoveComboBox<String>.AddRemoveListCell cell = comboBox.new AddRemoveListCell() {
+                    @Override
+                    protected void updateItem(String item, boolean empty) {
+                        updateItemCalls++;
+                        super.updateItem(item, empty);
+                    }
+                };
+                cell.setRemoveButtonAction(comboBox.getRemovalAction());
+                cell.setOnMousePressed(click -> comboBox.hide());
+                return cell;
+            }
+        };
+    }
+
+    /**
+     * @return the ListView in the combo box's popup (which is there whether or not the popup's open, once the
+     * real skin's been installed).
+     */
+    private static ListView<?> getListView(AddRemoveComboBox<?> comboBox) {
+        VBox popupContent = (VBox) ((AddRemoveComboBoxSkin<?>) comboBox.getSkin()).getPopupContent();
+        for (Node child : popupContent.getChildren()) {
+            if (child instanceof ListView) {
+                return (ListView<?>) child;
+            }
+        }
+        throw new IllegalStateException("The popup has no ListView.");
+    }
+
+    private static void resetCounts() throws Exception {
+        onFx(new Callable<Void>() {
+            @Override
+            public Void call() {
+                pulses = 0;
+                layoutPasses = 0;
+                updateItemCalls = 0;
+                cellsCreated = 0;
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Records what's been counted, per operation (except for cells made, which is a total).
+     */
+    private static void recordCounts(Map<String, Double> measurements, String phase, int operations) throws Exception {
+        int[] counts = onFx(new Callable<int[]>() {
+            @Override
+            public int[] call() {
+                return new int[]{pulses, layoutPasses, updateItemCalls, cellsCreated};
+            }
+        });
+        measurements.put(phase + "PulsesPerOp", (double) counts[0] / operations);
+        measurements.put(phase + "LayoutPassesPerOp", (double) counts[1] / operations);
+        measurements.put(phase + "UpdateItemCallsPerOp", (double) counts[2] / operations);
+        measurements.put(phase + "CellsCreated", (double) counts[3]);
+    }
+
+    /**
+     * Waits until JavaFX has gone a little while without a pulse, which means it's done laying out and
+     * drawing whatever we last changed.
+     */
+    private static void waitUntilIdle() throws Exception {
+        int last = -1;
+        for (long waited = 0; waited < MAX_WAIT_MILLIS; waited += IDLE_MILLIS) {
+            Thread.sleep(IDLE_MILLIS);
+            int now = onFx(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    return pulses;
+                }
+            });
+            if (now == last) {
+                return;
+            }
+            last = now;
+        }
+    }
+
+    /**
+     * Runs something on the JavaFX Application Thread and waits for its result.
+     */
+    private static <V> V onFx(Callable<V> callable) throws Exception {
+        FutureTask<V> task = new FutureTask<>(callable);
+        Platform.runLater(task);
+        return task.get();
+    }
+
+    private static Map<String, Double> loadThresholds() throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = UiPerformanceHarness.class.getResourceAsStream(THRESHOLDS)) {
+            if (in == null) {
+                throw new IOException(THRESHOLDS + " is missing.");
+            }
+            properties.load(in);
+        }
+
+        Map<String, Double> thresholds = new LinkedHashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            String value = System.getProperty("ui.threshold." + name, properties.getProperty(name));
+            thresholds.put(name, Double.parseDouble(value.trim()));
+        }
+        return thresholds;
+    }
+
+    /**
+     * @return a description of every measurement that's over its limit. (Measurements without a limit
+     * are only recorded.)
+     */
+    private static List<String> check(Map<Integer, Map<String, Double>> results, Map<String, Double> thresholds) {
+        List<String> overLimit = new ArrayList<>();
+        for (Map.Entry<Integer, Map<String, Double>> result : results.entrySet()) {
+            for (Map.Entry<String, Double> measurement : result.getValue().entrySet()) {
+                Double limit = thresholds.get(measurement.getKey());
+                if (limit != null && measurement.getValue() > limit) {
+                    overLimit.add(String.format("%s with %d items: %.2f (limit %.2f)",
+                            measurement.getKey(), result.getKey(), measurement.getValue(), limit));
+                }
+            }
+        }
+        return overLimit;
+    }
+
+    private static void print(Map<Integer, Map<String, Double>> results) {
+        for (Map.Entry<Integer, Map<String, Double>> result : results.entrySet()) {
+            System.out.println(result.getKey() + " items:");
+            for (Map.Entry<String, Double> measurement : result.getValue().entrySet()) {
+                System.out.printf("    %-30s %10.2f%n", measurement.getKey(), measurement.getValue());
+            }
+        }
+    }
+
+    private static void writeJson(Map<Integer, Map<String, Double>> results, Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8))) {
+            out.println("[");
+            int r = 0;
+            for (Map.Entry<Integer, Map<String, Double>> result : results.entrySet()) {
+                out.print("  {\"size\": " + result.getKey());
+                for (Map.Entry<String, Double> measurement : result.getValue().entrySet()) {
+                    out.print(", \"" + measurement.getKey() + "\": " + measurement.getValue());
+                }
+                out.println(++r < results.size() ? "}," : "}");
+            }
+            out.println("]");
+        }
+    }
+}
@@ -6,27 +6,44 @@ package tech.ugma.customcomponents;
  *  Last modified 5/10/17 9:07 AM
  */
 
-import com.sun.javafx.scene.control.skin.ComboBoxListViewSkin;
-import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
-import javafx.beans.binding.Bindings;
-import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableValue;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.ObservableSet;
+import javafx.css.PseudoClass;
 import javafx.event.ActionEvent;
+import javafx.event.Event;
 import javafx.event.EventHandler;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.*;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
 import javafx.util.Callback;
+import javafx.util.Duration;
+import javafx.util.StringConverter;
 
-import java.text.Collator;
+import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Objects;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 
 /**
@@ -35,27 +52,86 @@ import java.util.function.Consumer;
  * Items are removed by clicking the 'x' next to the item to be removed.
  * <p>
  * Items are added by clicking the '+' at the bottom of the list. This plus button, or add button as
- * I'll call it will be automatically kept at the bottom of the list, but (for now) needs to be added manually.
- * (This lets you only allow removal, but not addition.)
- * You add the "add button" by including `AddRemoveButton.ADD_CELL_PLACEHOLDER` in your item list.
+ * I'll call it, isn't one of the items; it sits underneath the list in the popup. It's hidden unless you
+ * call {@code setShowAddButton(true)}. (This lets you only allow removal, but not addition.)
+ * <p>
+ * Items don't have to be Strings. Each item is shown (and sorted) by the text the ComboBox's converter
+ * gives it, and {@link #setItemFactory(Function)} tells the add button how to make a new item out of
+ * the text the user types in.
  * <p>
  * Removable cells are implemented using a custom class called
  * AddRemoveListCell (accessible via AddRemoveComboBox.AddRemoveListCell) which is conveniently
  * contained herein.
  */
 @SuppressWarnings({"WeakerAccess", "Convert2Lambda"})
-public class AddRemoveComboBox extends ComboBox<String> {
+public class AddRemoveComboBox<T> extends ComboBox<T> {
+
+    /**
+     * The same as {@link #ADD_CELL_PLACEHOLDER}, for the code that still has to look out for it (and take it back
+     * out), without setting off deprecation warnings of our own.
+     */
+    static final String LEGACY_ADD_CELL_PLACEHOLDER = "ADD_AN_ADD_CELL_RIGHT_HERE_RIGHT_NOW";
+
+    /**
+     * This used to be put in the list of choices to make the "Add Button" show up.
+     * <p>
+     * The add button isn't an item anymore, so if this turns up in the list it's taken right back out and
+     * the add button is shown instead.
+     *
+     * @deprecated use {@link #setShowAddButton(boolean)} instead.
+     */
+    @Deprecated
+    public static final String ADD_CELL_PLACEHOLDER = LEGACY_ADD_CELL_PLACEHOLDER;
+
+    /**
+     * Cells of items that are still being saved by the commit handler are in this state.
+     */
+    private static final PseudoClass PENDING = PseudoClass.getPseudoClass("pending");
+
+    /**
+     * Cells whose items are marked for removal (in bulk removal mode) have this pseudo class.
+     */
+    private static final PseudoClass MARKED = PseudoClass.getPseudoClass("marked");
+
+    /**
+     * The keys that undo and redo additions and removals.
+     */
+    private static final KeyCombination UNDO_SHORTCUT = new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN);
+    private static final KeyCombination REDO_SHORTCUT = new KeyCodeCombination(KeyCode.Y, KeyCombination.SHORTCUT_DOWN);
+    private static final KeyCombination ALTERNATE_REDO_SHORTCUT =
+            new KeyCodeCombination(KeyCode.Z, KeyCombination.SHORTCUT_DOWN, KeyCombination.SHIFT_DOWN);
+
+    /**
+     * Stops an event from going any further. Shared by every cell's remove button.
+     */
+    private static final EventHandler<Event> CONSUME_EVENT = new EventHandler<Event>() {
+        @Override
+        public void handle(Event event) {
+            event.consume();
+        }
+    };
+
+    /**
+     * Whether the add button (the little '+') is shown at the bottom of the popup.
+     */
+    private final BooleanProperty showAddButton = new SimpleBooleanProperty(this, "showAddButton", false);
+
+    /**
+     * Whether there's a filter field at the top of the popup for narrowing down the items.
+     */
+    private final BooleanProperty filterEnabled = new SimpleBooleanProperty(this, "filterEnabled", false);
 
     /**
-     * For convenience in adding the "Add Button" to the list of choices. Hopefully no one ever
-     * has this exact text in their list.
+     * How long to wait after the user stops typing into the filter before looking anything up.
      */
-    public static final String ADD_CELL_PLACEHOLDER = "ADD_AN_ADD_CELL_RIGHT_HERE_RIGHT_NOW";
+    private Duration filterDelay = Duration.millis(150);
 
     /**
-     * This will keep the add cell (the little '+') at the bottom of the list.
+     * The height of every row in the popup, or {@link Region#USE_COMPUTED_SIZE} to let each row be as tall as
+     * it wants.
      */
-    private Comparator<String> addCellRelegator;
+    private final DoubleProperty fixedCellSize = new SimpleDoubleProperty(this, "fixedCellSize",
+            Region.USE_COMPUTED_SIZE);
 
     /**
      * The default action for when when the user removes something from the list.
@@ -70,15 +146,14 @@ public class AddRemoveComboBox extends ComboBox<String> {
             //Get the cell whose button was clicked
             Button button = (Button) event.getSource();
             HBox hBox = (HBox) button.getParent();
-            AddRemoveComboBox.AddRemoveListCell cell = (AddRemoveComboBox.AddRemoveListCell) hBox.getParent();
+            @SuppressWarnings("unchecked")
+            AddRemoveListCell cell = (AddRemoveListCell) hBox.getParent();
 
-            AddRemoveComboBox.this.getItems().remove(cell.getItem());
+            //Take it out (and, if there's a commit handler, save that in the background)
+            AddRemoveComboBox.this.commitRemoval(cell.getItem());
 
-            //I can't quite figure out how to resize the ListView once an item is removed.
-            //However, the ComboBox seems to know how to do it, itself; so I'll just open
-            //and close it and hope no one notices.
-            AddRemoveComboBox.this.hide();
-            AddRemoveComboBox.this.show();
+            //The list just got shorter, so the popup needs to shrink to match.
+            AddRemoveComboBox.this.refreshPopup();
         }
     };
     /**
@@ -111,10 +186,32 @@ public class AddRemoveComboBox extends ComboBox<String> {
             result.ifPresent(new Consumer<String>() {
                 @Override
                 public void accept(String s) {
-                    //Add the new item
-                    AddRemoveComboBox.this.getItems().add(s);
-                    //Select the new item
-                    AddRemoveComboBox.this.getSelectionModel().select(s);
+                    //Turn what the user typed into an item
+                    T item = itemFactory.apply(s);
+                    if (item == null) {
+                        return;
+                    }
+
+                    //If it's already there (and duplicates aren't allowed), don't add it again.
+                    //When merging, pick the one that's already there instead.
+                    if (model.getDuplicatePolicy() != DuplicatePolicy.ALLOW) {
+                        T existing = model.findDuplicate(item);
+                        if (existing != null) {
+                            if (model.getDuplicatePolicy() == DuplicatePolicy.MERGE) {
+                                AddRemoveComboBox.this.getSelectionModel().select(existing);
+                            }
+                            return;
+                        }
+                    }
+
+                    //Add the new item (straight into its proper place, so nothing has to be re-sorted).
+                    //If there's a commit handler, it's saved in the background.
+                    CompletableFuture<T> added = AddRemoveComboBox.this.commitAddition(item);
+                    //Select the new item, if it went in. (If it's taken back out later, because it couldn't be
+                    //saved, it's unselected again.)
+                    if (!added.isCompletedExceptionally() && model.contains(item)) {
+                        AddRemoveComboBox.this.getSelectionModel().select(item);
+                    }
                 }
             });
 
@@ -122,18 +219,71 @@ public class AddRemoveComboBox extends ComboBox<String> {
     };
 
     /**
-     * Keeps track of whether the list was just sorted or not. If it was, the listener on the
-     * item list will make sure not to sort it again. See tech.ugma.customcomponents.AddRemoveComboBox#initAddCellManager()
+     * Turns the text the user typed into the add dialog into a new item.
+     * <p>
+     * By default this asks the converter, which is all you need for a list of Strings.
      */
-    private boolean wasJustSorted;
+    private Function<String, T> itemFactory = new Function<String, T>() {
+        @Override
+        public T apply(String text) {
+            return getConverter() == null ? null : getConverter().fromString(text);
+        }
+    };
 
     /**
-     * Controls whether or not the AddRemoveComboBox should sort the rest of the items (excluding the
-     * add cell) alphabetically.
-     * <p>
-     * I've got it set to false by default, because normal ComboBox behavior is to *not* sort items.
+     * Checks and saves additions and removals in the background, if a commit handler has been set.
+     */
+    private final ItemCommitPipeline<T> commits = new ItemCommitPipeline<>(this);
+
+    /**
+     * A read-only view of the items the commit handler hasn't finished saving.
      */
-    private boolean sortAlphabetically = false;
+    private final ObservableSet<T> pendingItems = FXCollections.unmodifiableObservableSet(commits.getPendingItems());
+
+    /**
+     * The items, and the work of keeping them in order. This might be shared with other AddRemoveComboBoxes.
+     */
+    private final AddRemoveItemModel<T> model;
+
+    /**
+     * Whether the model was made just for this combo box, rather than handed to us (to share). Only a model
+     * of our own has its items sorted by our converter.
+     */
+    private final boolean ownsModel;
+
+    /**
+     * Counts and times what this combo box gets up to, when metrics are turned on. See {@link AddRemoveMetrics}.
+     */
+    private final AddRemoveMetrics metrics = new AddRemoveMetrics();
+
+    /**
+     * Takes additions and removals from other threads, and makes them on the JavaFX Application Thread in batches.
+     */
+    private final ItemIngestionQueue<T> ingestion;
+
+    /**
+     * Whether the popup is in bulk removal mode: clicking an item marks it (rather than picking it), and the
+     * marked items can then all be removed at once.
+     */
+    private final BooleanProperty bulkRemoval = new SimpleBooleanProperty(this, "bulkRemoval", false);
+
+    /**
+     * The items marked for removal, in bulk removal mode.
+     */
+    private final ObservableSet<T> markedItems = FXCollections.observableSet(new HashSet<T>());
+
+    /**
+     * Where the last item was marked (or unmarked), and in which ListView, so a shift-click can mark
+     * everything from there on.
+     */
+    private int markAnchor = -1;
+    private ListView<T> markAnchorView;
+
+    /**
+     * Whether an item's been picked since the popup was opened. It's counted (for sorting by usage) once
+     * the popup closes, so the list doesn't move around underneath the user while they're looking at it.
+     */
+    private boolean picked;
 
     /**
      * Just calls the other constructor, but with an empty list.
@@ -142,35 +292,126 @@ public class AddRemoveComboBox extends ComboBox<String> {
         this(FXCollections.emptyObservableList());
     }
 
+    /**
+     * For when there are too many items to keep in memory. Items are loaded from the provider a page at a time,
+     * and only when they're about to be shown. (To choose the page size, pass in a {@link PagedItemList} instead.)
+     * <p>
+     * The provider is in charge of the order of the items, so they won't be sorted alphabetically.
+     *
+     * @param provider where the items come from
+     */
+    public AddRemoveComboBox(ItemProvider<T> provider) {
+        this(new PagedItemList<>(provider));
+    }
+
     /**
      * Don't forget to implement the removalAction and additionAction (otherwise nothing will happen
      * when you click the '+' or 'x'.
      *
      * @param list of items you want the AddRemoveComboBox to contain
      */
-    public AddRemoveComboBox(ObservableList<String> list) {
+    public AddRemoveComboBox(ObservableList<T> list) {
         super(list);
 
-        //Make the comparator that will keep the add cell at the bottom of the list
-        addCellRelegator = initAddCellRelegator();
+        //The list gets a model of its own, which sorts the items by whatever text our converter gives them.
+        //(This puts the list in order, and keeps it that way.)
+        this.model = new AddRemoveItemModel<>(list, this::toDisplayText, metrics);
+        this.ownsModel = true;
+        this.ingestion = new ItemIngestionQueue<>(model);
+
+        initialize();
+    }
+
+    /**
+     * For when lots of combo boxes show the same items. The model keeps the items in order for all of them,
+     * so each change is only dealt with once, not once per combo box.
+     *
+     * @param model the items (and how they're sorted), shared with other AddRemoveComboBoxes
+     */
+    public AddRemoveComboBox(AddRemoveItemModel<T> model) {
+        super(model.getItems());
+
+        this.model = model;
+        this.ownsModel = false;
+        this.ingestion = new ItemIngestionQueue<>(model);
+
+        initialize();
+    }
 
-        //Listen for every time the list is changed; when it is, re-sort the items,
-        //making sure the add cell is at the bottom.
-        if (list != null) {
-            list.addListener(initAddCellManager());
-        } else {
-            throw new NullPointerException("List passed to constructor is null.");
+    /**
+     * Gets things sit'chiated; whichever constructor was used, there's a model by now.
+     */
+    private void initialize() {
+        //Keeps track of us (weakly), so a popup that's open can be refreshed after a batch of changes.
+        model.subscribe(this);
+
+        //Items are sorted by their text, so if the way items are turned into text changes, so does the order.
+        if (ownsModel) {
+            this.converterProperty().addListener(new InvalidationListener() {
+                @Override
+                public void invalidated(Observable observable) {
+                    model.textChanged();
+                }
+            });
         }
 
+        //Count the popup opening and closing (only if metrics are on, but it's cheap enough to always listen)
+        this.addEventHandler(ON_SHOWN, new EventHandler<Event>() {
+            @Override
+            public void handle(Event event) {
+                if (AddRemoveMetrics.isRecording()) {
+                    metrics.record(AddRemoveMetrics.Metric.POPUP_SHOWS, 1);
+                }
+            }
+        });
+        this.addEventHandler(ON_HIDDEN, new EventHandler<Event>() {
+            @Override
+            public void handle(Event event) {
+                if (AddRemoveMetrics.isRecording()) {
+                    metrics.record(AddRemoveMetrics.Metric.POPUP_HIDES, 1);
+                }
+
+                //Count whatever was picked, now that nobody's looking at the list
+                if (picked) {
+                    picked = false;
+                    model.recordUse(getValue());
+                }
+            }
+        });
+
+        //Anything picked from the popup counts as a use (see the model's recordUse)
+        this.valueProperty().addListener(new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                if (isShowing()) {
+                    picked = true;
+                }
+            }
+        });
+
+        //The usual shortcuts undo and redo additions and removals
+        this.addEventHandler(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
+            @Override
+            public void handle(KeyEvent event) {
+                if (UNDO_SHORTCUT.match(event)) {
+                    undo();
+                    event.consume();
+                } else if (REDO_SHORTCUT.match(event) || ALTERNATE_REDO_SHORTCUT.match(event)) {
+                    redo();
+                    event.consume();
+                }
+            }
+        });
+
         //Make and give the cell factory to the combo box. The cell factory makes the cells that are
         //displayed in the dropdown area in a ListView
         this.setCellFactory(initCellFactory());
 
-        //Without this, the ButtonedComboBx will hide before the click registers to the button.
-        this.setSkin(initCustomSkin());
+        //The add/remove buttons are styled by a stylesheet shared by every AddRemoveComboBox.
+        this.getStyleClass().add("add-remove-combo-box");
 
-        //Don't show the big ugly constant that holds the place of the add cell
-        this.getSelectionModel().selectedItemProperty().addListener(initHideUglyConstantListener());
+        //There's no skin set here on purpose: until the combo box is first used, it gets a lightweight
+        //stand-in (see createDefaultSkin()), and the real one is only made when it's needed.
 
         //By default, select first option
         this.getSelectionModel().selectFirst();
@@ -178,77 +419,235 @@ public class AddRemoveComboBox extends ComboBox<String> {
     }
 
     /**
-     * As a rule, it is assumed that the add cell is desired at the bottom of the list.
-     * The comparator that this returns should hopefully ensure just that.
+     * Makes a whole batch of changes to the items all at once.
+     * <p>
+     * Adding or removing items one at a time means each change gets put in order, announced to every
+     * listener, and (if the popup is open) resized for, separately. Instead, the changes you make to the
+     * list handed to {@code changes} are applied to a copy; the copy is put in order once, swapped in as a
+     * single change, and the popup is refreshed once.
+     * <pre>
+     * <code>comboBox.updateItems(items -&gt; {
+     *     items.removeAll(staleItems);
+     *     items.addAll(freshItems);
+     * });</code>
+     * </pre>
      *
-     * @return a comparator that will always consider the add cell as the smaller of the two.
+     * @param changes makes whatever additions and removals are needed to the list it's given.
+     *                (Order doesn't matter; the list will be put in order afterwards.)
      */
-    private Comparator<String> initAddCellRelegator() {
-        return new Comparator<String>() {
-            @Override
-            public int compare(String o1, String o2) {
-
-                if (Objects.equals(ADD_CELL_PLACEHOLDER, o1)) {
-                    //If the add cell is o1 (the first argument), return positive, telling the
-                    //comparator that o1 is greater.
-                    return Integer.MAX_VALUE;
-                } else if (Objects.equals(ADD_CELL_PLACEHOLDER, o2)) {
-
-                    //If the add cell is o2 (the second argument), return negative, telling the
-                    //comparator that add cell is lesser.
-                    return Integer.MIN_VALUE;
-                } else {
-
-                    if (sortAlphabetically) {
-                        //Otherwise, sort things in alphabetical order.
-                        return Collator.getInstance().compare(o1, o2);
-                    } else {
-                        return 0;
-                    }
-                }
-            }
-        };
+    public void updateItems(Consumer<? super List<T>> changes) {
+        model.updateItems(changes);
     }
 
     /**
-     * Makes an invalidation listener that keeps the add cell at the bottom of the list.
+     * Adds an item, the same as {@link #addItem(Object)}, and then has the commit handler (if there is one)
+     * check and save it on a background thread. The item shows up right away, marked as pending; if the
+     * handler fails, it's taken back out.
+     * <p>
+     * Call this on the JavaFX Application Thread.
      *
-     * @return an invalidation listener that keeps the add cell at the bottom of the list.
+     * @param item the item to add
+     * @return completes (on the JavaFX Application Thread) once the addition has been saved, or fails if it
+     * couldn't be, or if too many changes are already waiting to be saved.
      */
-    private InvalidationListener initAddCellManager() {
-        return new InvalidationListener() {
-            @Override
-            public void invalidated(Observable observable) {
-                if (wasJustSorted) {
-                    //If the list was just sorted, we won't sort the list again.
+    public CompletableFuture<T> commitAddition(T item) {
+        //Timed from before the change is made, since without a handler it's all done before commitAddition returns
+        long start = AddRemoveMetrics.isRecording() ? System.nanoTime() : 0;
+        CompletableFuture<T> result = commits.commitAddition(item);
+        if (AddRemoveMetrics.isRecording()) {
+            result.whenComplete((committed, failure) -> metrics.recordTimed(
+                    AddRemoveMetrics.Metric.ADDITIONS, AddRemoveMetrics.Metric.ADDITION_NANOS, start));
+        }
+        return result;
+    }
 
-                    //Just set it to false for the next time when we will want to sort the list.
-                    wasJustSorted = false;
-                } else {
+    /**
+     * Removes an item and then has the commit handler (if there is one) save that on a background thread.
+     * The item disappears right away; if the handler fails, it's put back.
+     * <p>
+     * Call this on the JavaFX Application Thread.
+     *
+     * @param item the item to remove
+     * @return completes (on the JavaFX Application Thread) once the removal has been saved, or fails if it
+     * couldn't be, or if too many changes are already waiting to be saved.
+     */
+    public CompletableFuture<T> commitRemoval(T item) {
+        //Timed from before the change is made, since without a handler it's all done before commitRemoval returns
+        long start = AddRemoveMetrics.isRecording() ? System.nanoTime() : 0;
+        CompletableFuture<T> result = commits.commitRemoval(item);
+        if (AddRemoveMetrics.isRecording()) {
+            result.whenComplete((committed, failure) -> metrics.recordTimed(
+                    AddRemoveMetrics.Metric.REMOVALS, AddRemoveMetrics.Metric.REMOVAL_NANOS, start));
+        }
+        return result;
+    }
 
-                    //It's important that this, despite it's name, be changed *before* the list
-                    //is sorted. This is true because once the list is sorted, the InvalidationListener
-                    //is immediately fired before continuing on to the next line.
-                    wasJustSorted = true;
+    /**
+     * Adds an item from any thread at all; for when items come from somewhere other than the user, like
+     * a message consumer.
+     * <p>
+     * The item isn't added right away. It waits in a queue (which any number of threads can add to without
+     * locking), and the JavaFX Application Thread adds everything that's waiting in batches, with one
+     * ordering pass and one change notification per batch. If the queue is full, what happens depends on the
+     * {@link #setIngestionOverflowPolicy(IngestionOverflowPolicy) overflow policy}.
+     *
+     * @param item the item to add
+     * @return false if the item was thrown away because the queue was full (or the thread was interrupted
+     * while waiting for room).
+     */
+    public boolean ingestAddition(T item) {
+        return ingestion.offer(item, true);
+    }
 
-                    //sort list
-                    AddRemoveComboBox.this.getItems().sort(addCellRelegator);
-                }
-            }
+    /**
+     * Removes an item from any thread at all. Like {@link #ingestAddition(Object)}, the removal waits in
+     * a queue until the JavaFX Application Thread gets to it.
+     *
+     * @param item the item to remove
+     * @return false if the removal was thrown away because the queue was full (or the thread was interrupted
+     * while waiting for room).
+     */
+    public boolean ingestRemoval(T item) {
+        return ingestion.offer(item, false);
+    }
 
+    /**
+     * @return how many ingested additions and removals are waiting for the JavaFX Application Thread.
+     */
+    public int getPendingIngestions() {
+        return ingestion.size();
+    }
 
-        };
+    /**
+     * @return how many ingested additions and removals have been thrown away because the queue was full.
+     */
+    public long getDroppedIngestions() {
+        return ingestion.getDropped();
+    }
+
+    /**
+     * Sets how many ingested additions and removals can be waiting at once.
+     *
+     * @param capacity how many changes can be waiting; 10,000 unless you say otherwise
+     */
+    public void setIngestionCapacity(int capacity) {
+        ingestion.setCapacity(capacity);
+    }
+
+    public int getIngestionCapacity() {
+        return ingestion.getCapacity();
+    }
+
+    /**
+     * Sets how many ingested changes are made per trip to the JavaFX Application Thread. Bigger batches
+     * are more efficient; smaller ones leave more room in between for the UI to respond to the user.
+     *
+     * @param batchSize how many changes are made at once; 500 unless you say otherwise
+     */
+    public void setIngestionBatchSize(int batchSize) {
+        ingestion.setBatchSize(batchSize);
+    }
+
+    public int getIngestionBatchSize() {
+        return ingestion.getBatchSize();
+    }
+
+    /**
+     * Sets what happens when items are ingested faster than they can be added and the queue fills up.
+     *
+     * @param overflowPolicy wait for room, or throw away the newest or the oldest change; null means BLOCK
+     */
+    public void setIngestionOverflowPolicy(IngestionOverflowPolicy overflowPolicy) {
+        ingestion.setOverflowPolicy(overflowPolicy);
+    }
+
+    public IngestionOverflowPolicy getIngestionOverflowPolicy() {
+        return ingestion.getOverflowPolicy();
+    }
+
+    /**
+     * Puts a removed item back. If we're not sorting, it goes back where it was, rather than at the end.
+     *
+     * @param item  the item to put back
+     * @param index where it was
+     */
+    void restoreItem(T item, int index) {
+        model.restoreItem(item, index);
+    }
+
+    /**
+     * Gets the open popup to match the (new) length of the list.
+     */
+    void refreshPopup() {
+        if (getSkin() instanceof AddRemoveComboBoxSkin) {
+            //Our skin can resize the popup without closing it.
+            ((AddRemoveComboBoxSkin<?>) getSkin()).resizePopup();
+        } else if (isShowing()) {
+            //Someone's given us a different skin. The ComboBox seems to know how to resize the
+            //ListView itself when it's opened, so close it and open it and hope no one notices.
+            hide();
+            show();
+        }
     }
 
     /**
-     * Instead of just putting the String in a plain ol' ListCell, like normal, we'll put the String
-     * into a custom subclass of ListCell that has a place for the string as well as a button to click.
+     * Adds an item right where it belongs: at the end, or, if we're sorting, in its alphabetical spot.
+     * <p>
+     * This is cheaper than {@code getItems().add(item)}, which puts the item at the end, where it then gets
+     * checked and, if need be, moved after the fact.
+     *
+     * @param item the item to add
      */
-    private Callback<ListView<String>, ListCell<String>> initCellFactory() {
+    public void addItem(T item) {
+        model.addItem(item);
+    }
 
-        return new Callback<ListView<String>, ListCell<String>>() {
+    /**
+     * @return what this combo box has been up to, when metrics are turned on. (Sorting is counted in the item
+     * model's metrics, which are these same metrics unless the model is shared.)
+     */
+    public AddRemoveMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Undoes the last addition or removal (like one the user made by accident). Ctrl+Z (Cmd+Z on a Mac) does
+     * this too, when the combo box has the focus. See {@link AddRemoveItemModel#undo()}.
+     *
+     * @return true if there was something to undo
+     */
+    public boolean undo() {
+        return model.undo();
+    }
+
+    /**
+     * Redoes the last thing that was undone. Ctrl+Y or Ctrl+Shift+Z (Cmd+Y or Cmd+Shift+Z on a Mac) do this too.
+     *
+     * @return true if there was something to redo
+     */
+    public boolean redo() {
+        return model.redo();
+    }
+
+    /**
+     * @return the items, and the work of keeping them in order (which might be shared with other combo boxes).
+     */
+    public AddRemoveItemModel<T> getItemModel() {
+        return model;
+    }
+
+    /**
+     * Instead of just putting the item in a plain ol' ListCell, like normal, we'll put the item
+     * into a custom subclass of ListCell that has a place for the item's text as well as a button to click.
+     */
+    private Callback<ListView<T>, ListCell<T>> initCellFactory() {
+
+        return new Callback<ListView<T>, ListCell<T>>() {
             @Override
-            public ListCell<String> call(ListView<String> param) {
+            public ListCell<T> call(ListView<T> param) {
+                if (AddRemoveMetrics.isRecording()) {
+                    metrics.record(AddRemoveMetrics.Metric.CELLS_CREATED, 1);
+                }
 
                 //This class is what will contain each entry in the list; it has
                 //two parts, the label and a button.
@@ -257,21 +656,9 @@ public class AddRemoveComboBox extends ComboBox<String> {
                 //Gives the user the ability to remove carrier choices
                 customCell.setRemoveButtonAction(removalAction);
 
-
-                //Give user the ability to add carriers
-                customCell.setAddButtonAction(additionAction);
-
-                //If the cell clicked is the add cell (even if they don't click the button), we want something to happen.
-                customCell.setOnMousePressed(clickAddButton -> {
-                    //Only if the click was on the add cell, simulate a button click.
-                    if (Objects.equals(customCell.getItem(), ADD_CELL_PLACEHOLDER)) {
-                        customCell.button.fire();
-                    }
-
-                    //No matter what, hide the box after the click.
-                    //This is necessary because we disabled the hide on click with the custom skin.
-                    AddRemoveComboBox.this.hide();
-                });
+                //Hide the box after the click.
+                //This is necessary because we disabled the hide on click with the custom skin.
+                customCell.setOnMousePressed(click -> AddRemoveComboBox.this.hide());
 
 
                 //Finally, return the customCell, all gussied up.
@@ -284,50 +671,66 @@ public class AddRemoveComboBox extends ComboBox<String> {
      * Makes a custom skin.
      * <p>
      * We have to make a custom skin, otherwise the ButtonedComboBx disappears before the click on the
-     * add/removal button is registered.
+     * add/removal button is registered. The custom skin also lets us resize the popup after an item is
+     * removed without having to close and reopen it.
      *
      * @return a custom skin that will stop the ButtonedComboBx from hiding.
      */
-    private ComboBoxListViewSkin<String> initCustomSkin() {
-
-        // We have to make a custom skin, otherwise the ButtonedComboBx disappears before the click on the
-        // add/removal button is registered.
-
-        return new ComboBoxListViewSkin<String>(AddRemoveComboBox.this) {
-            @Override
-            protected boolean isHideOnClickEnabled() {
-                return false;
-            }
-        };
+    private AddRemoveComboBoxSkin<T> initCustomSkin() {
+        return new AddRemoveComboBoxSkin<>(AddRemoveComboBox.this);
     }
 
     /**
-     * When the user selects the add-button cell, we don't really want to show anything in the drop down's button
-     * area.
+     * Gives the combo box a stand-in skin that only shows the value. The real skin, with its ListView and
+     * popup, isn't made until the combo box is focused, hovered over, or shown; on a screen full of combo
+     * boxes, most never are. See {@link LazyComboBoxSkin}.
      *
-     * @return a change listener that doesn't allow the big ugly constant to show in the button area
+     * @return the stand-in skin
      */
-    private ChangeListener<? super String> initHideUglyConstantListener() {
+    @Override
+    protected Skin<?> createDefaultSkin() {
+        return new LazyComboBoxSkin<>(AddRemoveComboBox.this);
+    }
 
-        return (observable, oldValue, selectedValue) -> {
+    /**
+     * Puts the real skin in place of the stand-in, if it hasn't been already. (A skin someone else has given
+     * us is left alone.)
+     */
+    void installSkin() {
+        if (getSkin() == null || getSkin() instanceof LazyComboBoxSkin) {
+            setSkin(initCustomSkin());
+        }
+    }
 
-            if (Objects.equals(selectedValue, ADD_CELL_PLACEHOLDER)) {
+    /**
+     * Opens the popup, making the real skin first if it hasn't been made yet.
+     */
+    @Override
+    public void show() {
+        installSkin();
+        super.show();
+    }
 
-                //The following needs to be in a runLater because
-                // you cannot change the selection while a selection change
-                // is still being processed
-                Platform.runLater(() -> {
-                    AddRemoveComboBox.this.getSelectionModel().clearSelection();
-                    AddRemoveComboBox.this.valueProperty().set(null);
-                });
-                return;
-            }
+    /**
+     * Turns an item into the text that's shown for it (and that it's sorted by), using the converter.
+     *
+     * @param item the item to be shown
+     * @return the item's text
+     */
+    String toDisplayText(T item) {
+        StringConverter<T> converter = getConverter();
+        if (converter == null) {
+            return item == null ? "" : item.toString();
+        }
+        return converter.toString(item);
+    }
 
-            //Otherwise, it's a fine click and you can select the item.
-            if (selectedValue != null) {
-                AddRemoveComboBox.this.getSelectionModel().select(selectedValue);
-            }
-        };
+    /**
+     * @return the stylesheet that styles the add and remove buttons.
+     */
+    @Override
+    public String getUserAgentStylesheet() {
+        return AddRemoveResources.STYLESHEET;
     }
 
     /**
@@ -348,6 +751,13 @@ public class AddRemoveComboBox extends ComboBox<String> {
         this.removalAction = removalAction;
     }
 
+    /**
+     * @return what happens when a user presses the remove button (the 'x').
+     */
+    public EventHandler<ActionEvent> getRemovalAction() {
+        return removalAction;
+    }
+
     /**
      * Here you provide the ButtonedComboBx with instructions as to what it should do when a user
      * presses the add button (the '+').
@@ -360,26 +770,417 @@ public class AddRemoveComboBox extends ComboBox<String> {
         this.additionAction = additionAction;
     }
 
+    /**
+     * @return what happens when a user presses the add button (the '+').
+     */
+    public EventHandler<ActionEvent> getAdditionAction() {
+        return additionAction;
+    }
+
+    /**
+     * Here you tell the default additionAction how to turn the text the user typed into a new item.
+     * If your items aren't Strings, you'll want to set this (or a converter).
+     * <p>
+     * If the factory returns null, nothing is added.
+     *
+     * @param itemFactory makes a new item out of the text the user entered
+     */
+    public void setItemFactory(Function<String, T> itemFactory) {
+        this.itemFactory = itemFactory;
+    }
+
+    /**
+     * @return what turns the text the user typed into a new item.
+     */
+    public Function<String, T> getItemFactory() {
+        return itemFactory;
+    }
+
+    /**
+     * Here you provide something to check and save the user's additions and removals, on a background thread.
+     * With one set, the default add and remove actions don't wait for it: the change shows up right away,
+     * and is undone if the handler fails.
+     *
+     * @param commitHandler checks and saves changes; null means changes aren't checked or saved at all
+     */
+    public void setCommitHandler(ItemCommitHandler<T> commitHandler) {
+        commits.setHandler(commitHandler);
+    }
+
+    public ItemCommitHandler<T> getCommitHandler() {
+        return commits.getHandler();
+    }
+
+    /**
+     * Sets where the commit handler is run. By default it's a pool of daemon threads shared by every
+     * AddRemoveComboBox.
+     *
+     * @param executor runs the commit handler; null means the default
+     */
+    public void setCommitExecutor(Executor executor) {
+        commits.setExecutor(executor);
+    }
+
+    public Executor getCommitExecutor() {
+        return commits.getExecutor();
+    }
+
+    /**
+     * Sets how many changes can be waiting on the commit handler at once. Past that, new changes are turned
+     * away (their futures fail with a RejectedExecutionException) rather than piling up.
+     *
+     * @param maxPendingCommits how many changes can be waiting at once; 16 unless you say otherwise
+     */
+    public void setMaxPendingCommits(int maxPendingCommits) {
+        commits.setMaxPending(maxPendingCommits);
+    }
+
+    public int getMaxPendingCommits() {
+        return commits.getMaxPending();
+    }
 
     /**
-     * Controls whether or not the list is sorted alphabetically. (This excludes the add cell,
-     * which is always relegated to the bottom.)
+     * @return the items that have been added but not yet saved by the commit handler.
+     */
+    public ObservableSet<T> getPendingItems() {
+        return pendingItems;
+    }
+
+    /**
+     * @param item the item to check on
+     * @return true if the item has been added but not yet saved by the commit handler.
+     */
+    public boolean isPending(T item) {
+        return commits.getPendingItems().contains(item);
+    }
+
+    /**
+     * Whether the popup is in bulk removal mode. In bulk removal mode, each item has a check box; clicking an
+     * item marks it (or unmarks it), and shift-clicking marks everything between it and the last one clicked.
+     * A button underneath the items then removes all of the marked ones at once. See {@link #removeMarkedItems()}.
+     *
+     * @return the property that turns bulk removal mode on and off
+     */
+    public BooleanProperty bulkRemovalProperty() {
+        return bulkRemoval;
+    }
+
+    public boolean isBulkRemoval() {
+        return bulkRemoval.get();
+    }
+
+    /**
+     * Set this to true to let the user mark lots of items and remove them all at once. Turning it off
+     * unmarks everything.
+     *
+     * @param bulkRemoval true = clicking items marks them for removal; false = clicking an item picks it
+     */
+    public void setBulkRemoval(boolean bulkRemoval) {
+        this.bulkRemoval.set(bulkRemoval);
+        if (!bulkRemoval) {
+            markedItems.clear();
+            markAnchor = -1;
+            markAnchorView = null;
+        }
+    }
+
+    /**
+     * @return the items marked for removal. (You can mark and unmark items through this, too.)
+     */
+    public ObservableSet<T> getMarkedItems() {
+        return markedItems;
+    }
+
+    /**
+     * Marks or unmarks the item in a cell, the way a click does in bulk removal mode.
+     *
+     * @param cell  the cell that was clicked
+     * @param range true to mark everything from the last item clicked to this one (like a shift-click does)
+     */
+    void toggleMarked(AddRemoveListCell cell, boolean range) {
+        ListView<T> listView = cell.getListView();
+        int index = cell.getIndex();
+        T item = cell.getItem();
+        if (listView == null || item == null) {
+            return;
+        }
+
+        if (range && listView == markAnchorView && markAnchor >= 0 && markAnchor < listView.getItems().size()) {
+            List<T> between = listView.getItems().subList(Math.min(markAnchor, index), Math.max(markAnchor, index) + 1);
+            markedItems.addAll(between);
+        } else if (!markedItems.remove(item)) {
+            markedItems.add(item);
+        }
+        markAnchor = index;
+        markAnchorView = listView;
+    }
+
+    /**
+     * Removes all of the marked items at once: one batch, so the items are put in order once, and the popup
+     * is only laid out again once (and stays open). If there's a commit handler, each removal is then saved in
+     * the background, and any that can't be are put back. The whole lot can be undone as one step.
+     * <p>
+     * Call this on the JavaFX Application Thread.
+     *
+     * @return completes (on the JavaFX Application Thread) once the removals have all been saved, or fails if
+     * any of them couldn't be, or if too many changes are already waiting to be saved.
+     */
+    public CompletableFuture<List<T>> removeMarkedItems() {
+        //Anything that's been removed some other way since it was marked is just unmarked.
+        List<T> marked = new ArrayList<>();
+        for (T item : markedItems) {
+            if (model.contains(item)) {
+                marked.add(item);
+            }
+        }
+        markedItems.clear();
+        markAnchor = -1;
+        markAnchorView = null;
+
+        if (marked.isEmpty()) {
+            return CompletableFuture.completedFuture(marked);
+        }
+
+        //In list order, so that if any have to be put back, they go back where they were
+        marked.sort(Comparator.comparingInt(model::indexOf));
+
+        long start = AddRemoveMetrics.isRecording() ? System.nanoTime() : 0;
+        CompletableFuture<List<T>> result = commits.commitRemovals(marked);
+        if (AddRemoveMetrics.isRecording()) {
+            result.whenComplete((committed, failure) -> {
+                metrics.record(AddRemoveMetrics.Metric.REMOVALS, marked.size());
+                metrics.record(AddRemoveMetrics.Metric.REMOVAL_NANOS, System.nanoTime() - start);
+            });
+        }
+        return result;
+    }
+
+    /**
+     * Whether the add button (the '+') is shown underneath the items in the popup.
+     *
+     * @return the property that shows or hides the add button
+     */
+    public BooleanProperty showAddButtonProperty() {
+        return showAddButton;
+    }
+
+    public boolean isShowAddButton() {
+        return showAddButton.get();
+    }
+
+    /**
+     * Set this to true to let the user add items. The add button (the '+') is shown at the bottom
+     * of the popup, underneath all of the items.
+     *
+     * @param showAddButton true = the user can add items; false = the user can only remove items
+     */
+    public void setShowAddButton(boolean showAddButton) {
+        this.showAddButton.set(showAddButton);
+    }
+
+    /**
+     * Whether the popup has a filter field at the top. Typing into it narrows the popup down to the items
+     * with a word starting with what was typed (ignoring case and accents).
+     * <p>
+     * The lookups happen in the background, using an index that's kept up to date as items are added and
+     * removed, so typing stays quick even with hundreds of thousands of items. (When the whole list is
+     * replaced, the index is rebuilt in the background, which means the converter gets called from a
+     * background thread.) Items that come from an {@link ItemProvider} can't be filtered.
+     *
+     * @return the property that shows or hides the filter field
+     */
+    public BooleanProperty filterEnabledProperty() {
+        return filterEnabled;
+    }
+
+    public boolean isFilterEnabled() {
+        return filterEnabled.get();
+    }
+
+    /**
+     * Set this to true to put a filter field at the top of the popup. See {@link #filterEnabledProperty()}.
+     *
+     * @param filterEnabled true = the user can filter the items; false = the user can only scroll through them
+     */
+    public void setFilterEnabled(boolean filterEnabled) {
+        if (filterEnabled && model.isPaged()) {
+            throw new IllegalStateException("Items that come from an ItemProvider can't be filtered.");
+        }
+        this.filterEnabled.set(filterEnabled);
+    }
+
+    public Duration getFilterDelay() {
+        return filterDelay;
+    }
+
+    /**
+     * Sets how long to wait after the user stops typing into the filter before the items are narrowed down.
+     * Nothing is looked up while they're still typing.
+     *
+     * @param filterDelay how long to wait (150 milliseconds by default)
+     */
+    public void setFilterDelay(Duration filterDelay) {
+        if (filterDelay == null) {
+            throw new NullPointerException("Filter delay can't be null.");
+        }
+        this.filterDelay = filterDelay;
+    }
+
+    /**
+     * The height of every row in the popup. Setting this (to anything above zero) turns on fixed sizing, which
+     * is worth it for long lists: the popup's height comes straight from the row height, and its width from
+     * the widest item's text, which is measured once and then kept up to date as items are added and removed.
+     * So opening the popup (or resizing it while it's open) only lays out the rows that are showing, no matter
+     * how many items there are.
+     * <p>
+     * The catch is that every row has to be the same height, and each row's text has to be in the same font.
+     * (Items that come from an {@link ItemProvider} aren't all measured; the popup is as wide as the rows that
+     * are showing when it opens.)
+     *
+     * @return the property holding the row height, or {@link Region#USE_COMPUTED_SIZE} (the default) for none
+     */
+    public DoubleProperty fixedCellSizeProperty() {
+        return fixedCellSize;
+    }
+
+    public double getFixedCellSize() {
+        return fixedCellSize.get();
+    }
+
+    /**
+     * Makes every row in the popup the same height, so the popup can be sized without measuring every item.
+     * See {@link #fixedCellSizeProperty()}.
+     *
+     * @param fixedCellSize the height of a row, or {@link Region#USE_COMPUTED_SIZE} to turn fixed sizing off
+     */
+    public void setFixedCellSize(double fixedCellSize) {
+        this.fixedCellSize.set(fixedCellSize);
+    }
+
+
+    /**
+     * Controls whether or not the list is sorted alphabetically. (The add button is always
+     * at the bottom, underneath the list.)
      *
      * @return true if the list *will* be sorted alphabetically, false otherwise.
      */
     public boolean isSortAlphabetically() {
-        return sortAlphabetically;
+        return model.isSortAlphabetically();
     }
 
 
     /**
-     * Set this to true if you want the list to be sorted alphabetically. The add cell will
-     * still get put at the bottom, just the rest of the items will be put in alphabetical order.
+     * Set this to true if you want the list to be sorted alphabetically. The add button will
+     * still be at the bottom, underneath the items.
+     * <p>
+     * The sorting settings belong to the item model, so if it's shared, this sorts every combo box sharing it.
      *
      * @param sortAlphabetically true = do sort alphabetically; false = do not sort alphabetically
      */
     public void setSortAlphabetically(boolean sortAlphabetically) {
-        this.sortAlphabetically = sortAlphabetically;
+        model.setSortAlphabetically(sortAlphabetically);
+    }
+
+    public boolean isSortByUsage() {
+        return model.isSortByUsage();
+    }
+
+    /**
+     * Set this to true to have the items picked most often (and most recently) at the top. The add button
+     * still stays at the bottom. To keep the scores between sessions, see
+     * {@link AddRemoveItemModel#saveUsage(java.nio.file.Path)} and
+     * {@link AddRemoveItemModel#loadUsage(java.nio.file.Path)}.
+     * <p>
+     * The sorting settings belong to the item model, so if it's shared, this sorts every combo box sharing it.
+     *
+     * @param sortByUsage true = most used items first; false = don't order by usage
+     */
+    public void setSortByUsage(boolean sortByUsage) {
+        model.setSortByUsage(sortByUsage);
+    }
+
+    /**
+     * The locale whose alphabet is used when sorting alphabetically.
+     *
+     * @return the locale used for sorting; the default locale unless it's been changed.
+     */
+    public Locale getSortLocale() {
+        return model.getSortLocale();
+    }
+
+    /**
+     * Sets which locale's alphabet to sort by. (Only matters when sorting alphabetically.)
+     *
+     * @param locale the locale to sort by; null means the default locale.
+     */
+    public void setSortLocale(Locale locale) {
+        model.setSortLocale(locale);
+    }
+
+    /**
+     * How picky the alphabetical sort is about differences in accents and case.
+     *
+     * @return one of java.text.Collator's PRIMARY, SECONDARY, TERTIARY or IDENTICAL.
+     */
+    public int getSortStrength() {
+        return model.getSortStrength();
+    }
+
+    /**
+     * Sets how picky the alphabetical sort is about differences in accents and case.
+     * For example, with Collator.PRIMARY, "a" and "A" are considered the same.
+     *
+     * @param strength one of java.text.Collator's PRIMARY, SECONDARY, TERTIARY or IDENTICAL.
+     */
+    public void setSortStrength(int strength) {
+        model.setSortStrength(strength);
+    }
+
+    /**
+     * Whether numbers inside of items are sorted by their value.
+     *
+     * @return true if "Item 10" will be sorted after "Item 9", false if it'll be sorted before.
+     */
+    public boolean isNaturalOrdering() {
+        return model.isNaturalOrdering();
+    }
+
+    /**
+     * Set this to true to have numbers inside of items sorted by their value instead of digit by digit,
+     * so that "Item 10" comes after "Item 9". (Only matters when sorting alphabetically.)
+     *
+     * @param naturalOrdering true = compare numbers by value; false = compare them like any other text
+     */
+    public void setNaturalOrdering(boolean naturalOrdering) {
+        model.setNaturalOrdering(naturalOrdering);
+    }
+
+    public DuplicatePolicy getDuplicatePolicy() {
+        return model.getDuplicatePolicy();
+    }
+
+    /**
+     * Sets what happens when the user (or your code) adds an item that's already in the list.
+     * See {@link AddRemoveItemModel#setDuplicatePolicy(DuplicatePolicy)}.
+     *
+     * @param duplicatePolicy ALLOW (the default), REJECT or MERGE
+     */
+    public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        model.setDuplicatePolicy(duplicatePolicy);
+    }
+
+    public DuplicateMatching getDuplicateMatching() {
+        return model.getDuplicateMatching();
+    }
+
+    /**
+     * Sets which items count as duplicates of each other. See
+     * {@link AddRemoveItemModel#setDuplicateMatching(DuplicateMatching)}.
+     *
+     * @param duplicateMatching EXACT (the default), SAME_TEXT, IGNORE_CASE or IGNORE_CASE_AND_ACCENTS
+     */
+    public void setDuplicateMatching(DuplicateMatching duplicateMatching) {
+        model.setDuplicateMatching(duplicateMatching);
     }
 
     ///////////////////////////////
@@ -387,13 +1188,13 @@ public class AddRemoveComboBox extends ComboBox<String> {
     ///////////////////////////////
 
     /**
-     * A list cell with both a label and a button.
+     * A list cell with both a label and a remove button.
      * <p>
      * Used inside of AddRemoveComboBox to display list entries with both their label as well as a button.
      * <p>
      * Code adapted from code by 'sillyfly'. http://stackoverflow.com/a/36145822/5432315
      */
-    public class AddRemoveListCell extends ListCell<String> {
+    public class AddRemoveListCell extends ListCell<T> {
 
         /**
          * Each item in the combo boxes item list will be put here as a label
@@ -401,55 +1202,28 @@ public class AddRemoveComboBox extends ComboBox<String> {
         private Label label = new Label();
 
         /**
-         * An image button displayed to the far right of the cell.
-         * This is formatted with internal CSS to be either an add- or remove- button.
+         * An image button displayed next to the item.
+         * It's styled as a remove button by the shared stylesheet (see the remove-button style class).
          */
-        private Button button = new Button();
+        private Button button = new Button(null, new ImageView(AddRemoveResources.getRemoveImage()));
 
         /**
-         * This is the node that will display the text and the remove-button.
+         * Shows whether the item is marked for removal. Only there in bulk removal mode; clicks go to the
+         * cell (see the constructor), so it doesn't need to handle any itself.
          */
-        private HBox box = new HBox(button, label);
+        private CheckBox markBox = new CheckBox();
 
         /**
-         * Will happen when the user clicks a remove button; must be implemented by developer before use.
-         */
-        private EventHandler<ActionEvent> removeEvent;
-
-
-        /**
-         * Will happen when the user clicks the add button; must be implemented by the developer before use.
-         */
-        private EventHandler<ActionEvent> addEvent;
-
-
-        /**
-         * Gives the button a little '+'; makes it transparent, etc.
-         * <p>
-         * This style will be applied to the add button.
-         * <p>
-         * I wanted to do in the external style sheet, but I couldn't find a way to do that
-         * with data binding. Buttons have an idProperty, but no classProperty.
+         * This is the node that will display the text and the remove-button.
          */
-        private String addButtonStyle = "-fx-background-color: transparent;\n" +
-                "        -fx-graphic:  url('Plus-Math-15.png');\n" +
-                "        -fx-opacity: 0.2;\n" +
-                "        -fx-padding: 0.333 .333 .333 .333;\n" +
-                "        -fx-cursor: hand;";
+        private HBox box = new HBox(markBox, button, label);
 
         /**
-         * Gives the button a little 'x'; makes it transparent, etc.
-         * <p>
-         * This style will be applied to all the remove buttons.
-         * <p>
-         * I wanted to do in the external style sheet, but I couldn't find a way to do that
-         * with data binding. Buttons have an idProperty, but no classProperty.
+         * The item whose text is showing in the label right now, along with the converter that made that text.
+         * As long as neither changes, there's no need to convert the item to text again.
          */
-        private String removeButtonStyle = "-fx-background-color: transparent;\n" +
-                "        -fx-graphic:  url('Delete-15.png');\n" +
-                "        -fx-opacity: 0.2;\n" +
-                "        -fx-padding: 0.333 .333 .333 .333;\n" +
-                "        -fx-cursor: hand;";
+        private T renderedItem;
+        private StringConverter<T> renderedConverter;
 
 
         /**
@@ -458,56 +1232,34 @@ public class AddRemoveComboBox extends ComboBox<String> {
          */
         public AddRemoveListCell() {
 
-            // Bind the label text to the item property. If your ButtonedComboBx items are not Strings
-            // you should use a converter.
-            label.textProperty().bind(itemProperty());
-
             // Set max width to infinity so the label takes up the rest of the space.
             label.setMaxWidth(Double.POSITIVE_INFINITY);
 
-            //If the item is the add cell, style it like an add button;
-            // other cells should have remove buttons.
-            button.styleProperty().bind(
-                    Bindings.when(this.itemProperty().isEqualTo(ADD_CELL_PLACEHOLDER))
-                            .then(addButtonStyle)
-                            .otherwise(removeButtonStyle)
-            );
+            //The look of the cell and its button comes from the shared stylesheet, so there's nothing
+            //to parse or bind per cell. (The label's text is set in updateItem.)
+            getStyleClass().add("add-remove-list-cell");
+            button.getStyleClass().add("remove-button");
 
+            //Pressing the remove button shouldn't count as picking this item (which would close the popup).
+            button.addEventHandler(MouseEvent.MOUSE_PRESSED, CONSUME_EVENT);
 
-            //Also, if it's the add cell, it's label should have no text;
-            // other cells, however, should show the item.
-            label.textProperty().bind(
-                    Bindings.when(this.itemProperty().isEqualTo(ADD_CELL_PLACEHOLDER))
-                            .then("")
-                            .otherwise(this.itemProperty().asString())
-            );
+            //The check box only shows up in bulk removal mode
+            markBox.getStyleClass().add("mark-box");
+            markBox.setMouseTransparent(true);
+            markBox.setFocusTraversable(false);
+            markBox.visibleProperty().bind(bulkRemoval);
+            markBox.managedProperty().bind(bulkRemoval);
 
-
-            //When the item is changed, if you need to, change what the button does.
-            itemProperty().addListener(new ChangeListener<String>() {
+            //In bulk removal mode, a click marks the item instead of picking it. This has to catch the press
+            //on its way down, before the ListView gets to select anything (or the popup gets hidden).
+            addEventFilter(MouseEvent.MOUSE_PRESSED, new EventHandler<MouseEvent>() {
                 @Override
-                public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue) {
-                    if (Objects.equals(newValue, ADD_CELL_PLACEHOLDER)) {
-                        //Make this button an add button
-
-                        //And make it add instead of remove
-                        if (addEvent != null) {
-                            button.setOnAction(addEvent);
-                        } else {
-                            throw new NullPointerException("Cell's Add-Event is null! oldValue: " +
-                                    oldValue + "; newValue: " + newValue);
-                        }
-                    } else {
-                        //Make this button a REMOVE button
-
-                        //Give the button it's remove event-handler
-                        if (removeEvent != null) {
-                            button.setOnAction(removeEvent);
-                        } else {
-                            throw new NullPointerException("Cell's Remove-Event is null! oldValue: " +
-                                    oldValue + "; newValue: " + newValue);
-                        }
+                public void handle(MouseEvent event) {
+                    if (!isBulkRemoval() || isEmpty() || isOnRemoveButton(event)) {
+                        return;
                     }
+                    toggleMarked(AddRemoveListCell.this, event.isShiftDown());
+                    event.consume();
                 }
             });
 
@@ -525,29 +1277,85 @@ public class AddRemoveComboBox extends ComboBox<String> {
 
         /**
          * Gives the cells their custom graphic.
-         * We set the graphic as our hBox—it contains both the item's text and either
-         * an add or remove button.
+         * We set the graphic as our hBox—it contains both the item's text and a remove button.
          *
          * @param item  the list item to be put in the dropdown
          * @param empty whether or not it's empty?
          */
         @Override
-        protected void updateItem(String item, boolean empty) {
+        protected void updateItem(T item, boolean empty) {
             super.updateItem(item, empty);
+            if (AddRemoveMetrics.isRecording()) {
+                metrics.record(AddRemoveMetrics.Metric.UPDATE_ITEM_CALLS, 1);
+            }
+
             if (empty || item == null) {
                 setText(null);
                 setGraphic(null);
+                pseudoClassStateChanged(PENDING, false);
+                pseudoClassStateChanged(MARKED, false);
+
+                //Don't hang on to items that aren't in the list anymore
+                renderedItem = null;
             } else {
                 //Text is contained within graphic (called label), so none is set here
                 setText(null);
 
-                //We set the graphic as our hBox—it contains both the item's text and either
-                // an add or remove button.
+                updatePendingState();
+                updateMarkedState();
+
+                //Only convert the item to text if it's not the one we've already got showing
+                StringConverter<T> converter = getConverter();
+                if (item != renderedItem || converter != renderedConverter) {
+                    label.setText(toDisplayText(item));
+                    renderedItem = item;
+                    renderedConverter = converter;
+                }
+
+                //We set the graphic as our hBox—it contains both the item's text and a remove button.
                 setGraphic(box);
             }
         }
 
 
+        /**
+         * Marks the cell as pending (or not) depending on whether its item is still being saved.
+         */
+        void updatePendingState() {
+            pseudoClassStateChanged(PENDING, !isEmpty() && getItem() != null && isPending(getItem()));
+        }
+
+        /**
+         * Ticks the check box (or not) depending on whether the item is marked for removal.
+         */
+        void updateMarkedState() {
+            boolean marked = !isEmpty() && getItem() != null && markedItems.contains(getItem());
+            markBox.setSelected(marked);
+            pseudoClassStateChanged(MARKED, marked);
+        }
+
+        /**
+         * @return the label the item's text is shown in.
+         */
+        Label getLabel() {
+            return label;
+        }
+
+        /**
+         * @return true if the mouse event happened on (something inside of) the remove button.
+         */
+        private boolean isOnRemoveButton(MouseEvent event) {
+            for (Object target = event.getTarget(); target instanceof Node; target = ((Node) target).getParent()) {
+                if (target == button) {
+                    return true;
+                }
+                if (target == this) {
+                    return false;
+                }
+            }
+            return false;
+        }
+
         /**
          * Allows the developer to provide an action event from the outside where
          * s/he has access to needful things.
@@ -564,20 +1372,17 @@ public class AddRemoveComboBox extends ComboBox<String> {
          * @param removeEvent the event desired to execute when a remove button is clicked.
          */
         public void setRemoveButtonAction(EventHandler<ActionEvent> removeEvent) {
-            this.removeEvent = removeEvent;
+            button.setOnAction(removeEvent);
         }
 
         /**
-         * Allows the developer to provide an action event from the outside where
-         * s/he has access to needful things.
-         * <p>
-         * This should only need to be set once. This same action event will be called
-         * whenever the add button is clicked.
+         * The add button isn't a cell anymore, so this doesn't do anything.
          *
-         * @param addEvent your favorite way to get a new item from the user and add it to the list.
+         * @param addEvent ignored
+         * @deprecated use {@link AddRemoveComboBox#setAdditionAction(EventHandler)} instead.
          */
+        @Deprecated
         public void setAddButtonAction(EventHandler<ActionEvent> addEvent) {
-            this.addEvent = addEvent;
         }
 
 
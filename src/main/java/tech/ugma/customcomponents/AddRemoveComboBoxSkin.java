@@ -0,0 +1,691 @@
+package tech.ugma.customcomponents;
+
+import com.sun.javafx.scene.control.skin.ComboBoxListViewSkin;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.SetChangeListener;
+import javafx.collections.WeakListChangeListener;
+import javafx.event.ActionEvent;
+import javafx.event.Event;
+import javafx.event.EventHandler;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Button;
+import javafx.scene.control.ComboBoxBase;
+import javafx.scene.control.Label;
+import javafx.scene.control.Labeled;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+
+import java.util.function.Consumer;
+
+/**
+ * The skin used by AddRemoveComboBox.
+ * <p>
+ * Besides keeping the popup open long enough for a click on an add/remove button to register, this skin
+ * knows how to resize the popup while it's open. When items are removed, the popup just gets shorter;
+ * it isn't closed and reopened (which rebuilds the whole popup and flickers).
+ * <p>
+ * The add button (the '+') lives here too, as a footer underneath the popup's ListView. It isn't
+ * one of the items, so the items list only ever holds real items.
+ * <p>
+ * When filtering's turned on, there's a filter field above the ListView. While there's something typed
+ * into it, a second ListView showing just the matching items takes the place of the usual one. (The usual one
+ * is left alone, since the combo box keeps its selection in step with it by index.)
+ * <p>
+ * In bulk removal mode, there's also a button above the add button that removes all of the marked items.
+ * <p>
+ * With a fixed cell size (see {@link AddRemoveComboBox#fixedCellSizeProperty()}), the popup's width comes
+ * from the width of the widest item's text, which is kept track of as items come and go, instead of from
+ * measuring every row.
+ */
+public class AddRemoveComboBoxSkin<T> extends ComboBoxListViewSkin<T> {
+
+    /**
+     * ComboBoxListViewSkin's ListView looks for this in the combo box's properties to find out how many rows
+     * to measure to work out its width. (Without it, it measures all of them.)
+     */
+    private static final String ROWS_TO_MEASURE_WIDTH = "comboBoxRowsToMeasureWidth";
+
+    /**
+     * The room ComboBoxListViewSkin leaves beside the widest row, for the scroll bar.
+     */
+    private static final double SCROLL_BAR_ALLOWANCE = 30;
+
+    /**
+     * The combo box this skin is skinning.
+     */
+    private final AddRemoveComboBox<T> comboBox;
+
+    /**
+     * The ListView and the add button underneath it. Made the first time the popup asks for its content.
+     * <p>
+     * (This is deliberately not given an initial value here; the popup might ask for its content while the
+     * super constructor is still running, and an initializer would then wipe out what was made.)
+     */
+    private VBox popupContent;
+
+    /**
+     * The height of one row in the popup, measured the first time the popup is shown.
+     * Until then it's -1, and the ListView is left to work out its own height.
+     */
+    private double rowHeight = -1;
+
+    /**
+     * The filter field, the matching items, and what finds them. Made along with the rest of the popup content.
+     */
+    private TextField filterField;
+    private ListView<T> resultsView;
+    private ItemFilter<T> filter;
+
+    /**
+     * Keeps the text of the button that removes the marked items up to date. Made along with the rest of the
+     * popup content.
+     */
+    private InvalidationListener onMarkedCountChanged;
+
+    /**
+     * The width of the widest item's text, in fixed sizing mode (unless the items are paged). Null otherwise.
+     */
+    private TextWidthCache<T> textWidths;
+
+    /**
+     * The items {@link #textWidths} is keeping track of.
+     */
+    private ObservableList<T> measuredItems;
+
+    /**
+     * How much wider a row is than its text (the remove button, padding, and so on), measured the first time
+     * the popup is shown in fixed sizing mode. Until then it's -1, and the ListView works out its own width
+     * from the rows that'll be showing.
+     */
+    private double cellExtraWidth = -1;
+
+    /**
+     * Before the popup opens, makes sure its height matches the current number of items (and its cells
+     * show which items are still being saved).
+     */
+    private final EventHandler<Event> onShowing = new EventHandler<Event>() {
+        @Override
+        public void handle(Event event) {
+            updatePopupWidth();
+            updatePopupHeight();
+            updatePendingCells();
+        }
+    };
+
+    /**
+     * Once the popup is open, measures the rows (if we haven't yet) so that from then on the popup's
+     * height can be worked out without measuring anything.
+     */
+    private final EventHandler<Event> onShown = new EventHandler<Event>() {
+        @Override
+        public void handle(Event event) {
+            if (comboBox.isFilterEnabled() && filterField != null) {
+                filterField.requestFocus();
+            }
+            if (rowHeight <= 0) {
+                rowHeight = measureRowHeight();
+                updatePopupHeight();
+            }
+            if (textWidths != null && cellExtraWidth < 0) {
+                cellExtraWidth = measureCellExtraWidth();
+                updatePopupWidth();
+            }
+        }
+    };
+
+    /**
+     * Turns fixed sizing on or off, or changes the row height.
+     */
+    private final InvalidationListener onFixedCellSizeChanged = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            applyFixedCellSize();
+        }
+    };
+
+    /**
+     * In fixed sizing mode, keeps the widest text's width up to date, and the popup's width with it. This is
+     * only the added and removed items' worth of work (plus one layout pass, if the width's changed). A batch
+     * that replaces the whole list means measuring everything again, which waits until the popup's shown.
+     */
+    private final ListChangeListener<T> onItemsChanged = new ListChangeListener<T>() {
+        @Override
+        public void onChanged(Change<? extends T> change) {
+            textWidths.onChanged(change);
+            updatePopupWidthIfMeasured();
+        }
+    };
+
+    /**
+     * What's actually registered with the items, which can be shared by several combo boxes. It's weak, so a
+     * combo box that's thrown away without its skin being disposed of isn't kept around by the items.
+     */
+    private final WeakListChangeListener<T> weakOnItemsChanged = new WeakListChangeListener<>(onItemsChanged);
+
+    /**
+     * In fixed sizing mode, starts over measuring text when there are new items, or they're shown differently
+     * (a new converter), or the rows are made differently (a new cell factory).
+     */
+    private final InvalidationListener onItemsReplaced = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            if (textWidths != null) {
+                watchItems(comboBox.getItems());
+                textWidths.invalidate();
+                updatePopupWidthIfMeasured();
+            }
+        }
+    };
+
+    private final InvalidationListener onTextChanged = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            if (textWidths != null) {
+                textWidths.invalidate();
+                updatePopupWidthIfMeasured();
+            }
+        }
+    };
+
+    private final InvalidationListener onCellFactoryChanged = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            cellExtraWidth = -1;
+            updatePopupWidthIfMeasured();
+        }
+    };
+
+    /**
+     * When an item is marked (or unmarked) for removal, ticks (or unticks) the cell showing it. Like
+     * {@link #onPendingChanged}, only the cells on screen are looked at.
+     */
+    private final SetChangeListener<T> onMarkedChanged = new SetChangeListener<T>() {
+        @Override
+        public void onChanged(Change<? extends T> change) {
+            if (comboBox.isShowing()) {
+                forEachCell(new Consumer<AddRemoveComboBox<?>.AddRemoveListCell>() {
+                    @Override
+                    public void accept(AddRemoveComboBox<?>.AddRemoveListCell cell) {
+                        cell.updateMarkedState();
+                    }
+                });
+            }
+        }
+    };
+
+    /**
+     * When an item is done being saved (or starts being saved), updates the cell showing it, if there is one.
+     * Only the cells on screen are looked at, so this costs the same no matter how long the list is. And if
+     * the popup isn't open there's nothing on screen at all; the cells are caught up when it's opened.
+     */
+    private final SetChangeListener<T> onPendingChanged = new SetChangeListener<T>() {
+        @Override
+        public void onChanged(Change<? extends T> change) {
+            if (comboBox.isShowing()) {
+                updatePendingCells();
+            }
+        }
+    };
+
+    /**
+     * Once the popup's closed, the filter is cleared, so it opens showing everything next time.
+     */
+    private final EventHandler<Event> onHidden = new EventHandler<Event>() {
+        @Override
+        public void handle(Event event) {
+            if (filterField != null) {
+                filterField.clear();
+            }
+        }
+    };
+
+    public AddRemoveComboBoxSkin(AddRemoveComboBox<T> comboBox) {
+        super(comboBox);
+        this.comboBox = comboBox;
+
+        comboBox.addEventHandler(ComboBoxBase.ON_SHOWING, onShowing);
+        comboBox.addEventHandler(ComboBoxBase.ON_SHOWN, onShown);
+        comboBox.addEventHandler(ComboBoxBase.ON_HIDDEN, onHidden);
+        comboBox.getPendingItems().addListener(onPendingChanged);
+        comboBox.getMarkedItems().addListener(onMarkedChanged);
+
+        comboBox.fixedCellSizeProperty().addListener(onFixedCellSizeChanged);
+        comboBox.itemsProperty().addListener(onItemsReplaced);
+        comboBox.converterProperty().addListener(onTextChanged);
+        comboBox.cellFactoryProperty().addListener(onCellFactoryChanged);
+        applyFixedCellSize();
+    }
+
+    /**
+     * Without this, the AddRemoveComboBox disappears before the click on the add/removal button is registered.
+     */
+    @Override
+    protected boolean isHideOnClickEnabled() {
+        return false;
+    }
+
+    /**
+     * The popup shows the ListView with the add button underneath it.
+     */
+    @Override
+    public Node getPopupContent() {
+        if (popupContent == null) {
+            @SuppressWarnings("unchecked")
+            AddRemoveComboBox<T> comboBox = (AddRemoveComboBox<T>) getSkinnable();
+            filter = new ItemFilter<>(comboBox);
+            popupContent = new VBox(initFilterField(comboBox), super.getPopupContent(), initResultsView(comboBox),
+                    initRemoveMarkedButton(comboBox), initAddButton());
+            popupContent.getStyleClass().add("add-remove-popup");
+
+            //The popup is in its own window, so it needs to be handed the shared stylesheet itself.
+            popupContent.getStylesheets().add(AddRemoveResources.STYLESHEET);
+
+            getListView().fixedCellSizeProperty().bind(comboBox.fixedCellSizeProperty());
+        }
+        return popupContent;
+    }
+
+    /**
+     * Makes the filter field. Whatever's typed into it is handed to the filter; Enter picks the first match,
+     * and the down arrow moves down into the list.
+     */
+    private TextField initFilterField(AddRemoveComboBox<T> comboBox) {
+        filterField = new TextField();
+        filterField.getStyleClass().add("filter-field");
+        filterField.setPromptText("Filter");
+
+        //Only take up space when filtering's turned on
+        filterField.visibleProperty().bind(comboBox.filterEnabledProperty());
+        filterField.managedProperty().bind(comboBox.filterEnabledProperty());
+
+        filterField.textProperty().addListener(new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                filter.setText(filterField.getText());
+            }
+        });
+
+        filterField.addEventHandler(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
+            @Override
+            public void handle(KeyEvent event) {
+                ListView<T> shown = filter.isFiltering() ? resultsView : getListView();
+                if (event.getCode() == KeyCode.ENTER && filter.isFiltering() && !filter.getResults().isEmpty()) {
+                    comboBox.getSelectionModel().select(filter.getResults().get(0));
+                    comboBox.hide();
+                    event.consume();
+                } else if (event.getCode() == KeyCode.DOWN && !shown.getItems().isEmpty()) {
+                    shown.requestFocus();
+                    if (shown.getSelectionModel().isEmpty()) {
+                        shown.getSelectionModel().selectFirst();
+                    }
+                    event.consume();
+                }
+            }
+        });
+        return filterField;
+    }
+
+    /**
+     * Makes the ListView that shows the matching items while filtering. Picking an item from it picks that
+     * item in the combo box.
+     */
+    private ListView<T> initResultsView(AddRemoveComboBox<T> comboBox) {
+        resultsView = new ListView<>(filter.getResults());
+        resultsView.getStyleClass().addAll("combo-box-popup", "filter-results");
+        resultsView.cellFactoryProperty().bind(comboBox.cellFactoryProperty());
+        resultsView.fixedCellSizeProperty().bind(comboBox.fixedCellSizeProperty());
+
+        //As wide as the usual list (which, unless there's a fixed cell size, means working it out itself)
+        resultsView.prefWidthProperty().bind(getListView().prefWidthProperty());
+        resultsView.setPlaceholder(new Label("No matches"));
+
+        //Only shown while there's something to filter by
+        resultsView.visibleProperty().bind(filter.filteringProperty());
+        resultsView.managedProperty().bind(filter.filteringProperty());
+
+        resultsView.getSelectionModel().selectedItemProperty().addListener(new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                T item = resultsView.getSelectionModel().getSelectedItem();
+                if (item != null) {
+                    comboBox.getSelectionModel().select(item);
+                }
+            }
+        });
+        resultsView.addEventHandler(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
+            @Override
+            public void handle(KeyEvent event) {
+                if (event.getCode() == KeyCode.ENTER) {
+                    comboBox.hide();
+                    event.consume();
+                }
+            }
+        });
+
+        //The popup's height has to follow the number of matches (and which list is showing)
+        InvalidationListener resize = new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                if (comboBox.isShowing()) {
+                    updatePopupHeight();
+                }
+            }
+        };
+        filter.getResults().addListener(resize);
+        filter.filteringProperty().addListener(resize);
+        return resultsView;
+    }
+
+    /**
+     * Makes the button that removes every marked item at once, in bulk removal mode. It says how many are
+     * marked, and can't be pressed until at least one is. The popup stays open afterwards.
+     */
+    private Button initRemoveMarkedButton(AddRemoveComboBox<T> comboBox) {
+        Button removeMarkedButton = new Button("Remove marked");
+        removeMarkedButton.getStyleClass().add("remove-marked-button");
+        removeMarkedButton.setMaxWidth(Double.MAX_VALUE);
+        removeMarkedButton.setDisable(true);
+
+        //Only take up space in bulk removal mode
+        removeMarkedButton.visibleProperty().bind(comboBox.bulkRemovalProperty());
+        removeMarkedButton.managedProperty().bind(comboBox.bulkRemovalProperty());
+
+        //(Taken off again in dispose(), so an old skin isn't kept around by the combo box's marked items)
+        onMarkedCountChanged = new InvalidationListener() {
+            @Override
+            public void invalidated(Observable observable) {
+                int marked = comboBox.getMarkedItems().size();
+                removeMarkedButton.setText(marked == 0 ? "Remove marked" : "Remove " + marked + " marked");
+                removeMarkedButton.setDisable(marked == 0);
+            }
+        };
+        comboBox.getMarkedItems().addListener(onMarkedCountChanged);
+
+        removeMarkedButton.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                comboBox.removeMarkedItems();
+            }
+        });
+        return removeMarkedButton;
+    }
+
+    /**
+     * Makes the add button. It stretches across the whole bottom of the popup, so a click anywhere
+     * down there counts.
+     */
+    private Button initAddButton() {
+        AddRemoveComboBox<?> comboBox = (AddRemoveComboBox<?>) getSkinnable();
+
+        Button addButton = new Button(null, new ImageView(AddRemoveResources.getAddImage()));
+        addButton.getStyleClass().add("add-button");
+        addButton.setMaxWidth(Double.MAX_VALUE);
+        addButton.setAlignment(Pos.CENTER_LEFT);
+
+        //Only take up space when the add button is wanted
+        addButton.visibleProperty().bind(comboBox.showAddButtonProperty());
+        addButton.managedProperty().bind(comboBox.showAddButtonProperty());
+
+        addButton.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                //Hide the box; this is necessary because we disabled the hide on click.
+                comboBox.hide();
+
+                if (comboBox.getAdditionAction() != null) {
+                    comboBox.getAdditionAction().handle(event);
+                }
+            }
+        });
+        return addButton;
+    }
+
+    /**
+     * Resizes the popup to fit however many items there are now, without closing it.
+     * <p>
+     * The new height comes straight from the number of visible rows and the row height, so this is
+     * the same amount of work no matter how long the list is: one layout pass of the popup, and no
+     * new cells.
+     */
+    public void resizePopup() {
+        updatePopupWidth();
+        updatePopupHeight();
+
+        if (rowHeight <= 0) {
+            //We haven't been able to measure a row yet (the list might have been empty until now),
+            //so let the ListView figure it out, and measure once it has.
+            getListView().requestLayout();
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    if (rowHeight <= 0 && comboBox.isShowing()) {
+                        rowHeight = measureRowHeight();
+                        updatePopupHeight();
+                    }
+                    if (textWidths != null && cellExtraWidth < 0 && comboBox.isShowing()) {
+                        cellExtraWidth = measureCellExtraWidth();
+                        updatePopupWidth();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Gives the ListView the height it needs for the current number of rows. The popup window
+     * follows the ListView's size on its next layout pass.
+     */
+    private void updatePopupHeight() {
+        boolean filtering = filter != null && filter.isFiltering();
+
+        //If there's nothing in the list but the add button is there, there's no need to show an empty list.
+        //(While filtering, the matches are showing instead; an empty list of matches says so.)
+        boolean showList = !filtering && (!getListView().getItems().isEmpty() || !comboBox.isShowAddButton());
+        getListView().setVisible(showList);
+        getListView().setManaged(showList);
+
+        ListView<T> listView = filtering ? resultsView : getListView();
+
+        if (rowHeight <= 0) {
+            return;
+        }
+
+        int rows = Math.min(comboBox.getVisibleRowCount(), listView.getItems().size());
+        if (rows <= 0) {
+            //Let the ListView size itself around its placeholder
+            listView.setPrefHeight(Region.USE_COMPUTED_SIZE);
+            return;
+        }
+
+        Insets insets = listView.getInsets();
+        listView.setPrefHeight(rows * rowHeight + insets.getTop() + insets.getBottom());
+    }
+
+    /**
+     * Turns fixed sizing on or off to match the combo box. (The ListViews follow the row height by themselves;
+     * they're bound to it.)
+     */
+    private void applyFixedCellSize() {
+        boolean fixed = comboBox.getFixedCellSize() > 0;
+
+        //A fixed row height doesn't need measuring; going back to rows that size themselves means measuring
+        //one again the next time the popup's shown.
+        rowHeight = fixed ? comboBox.getFixedCellSize() : -1;
+
+        if (fixed && !comboBox.getItemModel().isPaged()) {
+            if (textWidths == null) {
+                textWidths = new TextWidthCache<>(comboBox::toDisplayText);
+                watchItems(comboBox.getItems());
+            }
+        } else if (textWidths != null) {
+            watchItems(null);
+            textWidths = null;
+        }
+
+        if (fixed) {
+            updatePopupWidthIfMeasured();
+        } else {
+            comboBox.getProperties().remove(ROWS_TO_MEASURE_WIDTH);
+            getListView().setPrefWidth(Region.USE_COMPUTED_SIZE);
+        }
+        if (comboBox.isShowing()) {
+            updatePopupHeight();
+        }
+    }
+
+    /**
+     * Moves {@link #onItemsChanged} over to a different list of items (or takes it off, for null).
+     */
+    private void watchItems(ObservableList<T> items) {
+        if (measuredItems != null) {
+            measuredItems.removeListener(weakOnItemsChanged);
+        }
+        measuredItems = items;
+        if (items != null) {
+            items.addListener(weakOnItemsChanged);
+        }
+    }
+
+    /**
+     * In fixed sizing mode, gives the ListView the width it needs for the widest item, without measuring any
+     * rows. Like ComboBoxListViewSkin, it's never narrower than the combo box, and there's room for a scroll
+     * bar.
+     */
+    private void updatePopupWidth() {
+        if (comboBox.getFixedCellSize() <= 0) {
+            return;
+        }
+
+        ListView<T> listView = getListView();
+        if (textWidths == null || cellExtraWidth < 0) {
+            //We can't work it out (yet), so the ListView does, but only from the rows that'll be showing
+            comboBox.getProperties().put(ROWS_TO_MEASURE_WIDTH, comboBox.getVisibleRowCount());
+            listView.setPrefWidth(Region.USE_COMPUTED_SIZE);
+            return;
+        }
+
+        Insets insets = listView.getInsets();
+        double width = insets.getLeft() + textWidths.getMaxWidth(comboBox.getItems()) + cellExtraWidth
+                + insets.getRight() + SCROLL_BAR_ALLOWANCE;
+        listView.setPrefWidth(Math.ceil(Math.max(comboBox.getWidth(), width)));
+    }
+
+    /**
+     * Like {@link #updatePopupWidth()}, except that if the popup's closed and every item's text would have to be
+     * measured (after the whole list's been replaced, say), that's left until it's about to be shown.
+     */
+    private void updatePopupWidthIfMeasured() {
+        if (comboBox.isShowing() || textWidths == null || textWidths.isValid()) {
+            updatePopupWidth();
+        }
+    }
+
+    /**
+     * @return how much wider a row in the popup is than its text, or -1 if there isn't a row with text
+     * showing to measure.
+     */
+    private double measureCellExtraWidth() {
+        for (Node node : getListView().lookupAll(".list-cell")) {
+            if (!(node instanceof ListCell) || ((ListCell<?>) node).isEmpty()) {
+                continue;
+            }
+
+            //Our cells show their text in a label of their own
+            ListCell<?> cell = (ListCell<?>) node;
+            Labeled text = cell instanceof AddRemoveComboBox.AddRemoveListCell
+                    ? ((AddRemoveComboBox<?>.AddRemoveListCell) cell).getLabel() : cell;
+            if (text.getText() == null || text.getText().isEmpty()) {
+                continue;
+            }
+
+            textWidths.setFont(text.getFont());
+            return Math.max(0, cell.prefWidth(-1) - textWidths.measure(text.getText()));
+        }
+        return -1;
+    }
+
+    /**
+     * Marks the cells in the popup as pending (or not), and ticked (or not), to match their items.
+     */
+    private void updatePendingCells() {
+        forEachCell(new Consumer<AddRemoveComboBox<?>.AddRemoveListCell>() {
+            @Override
+            public void accept(AddRemoveComboBox<?>.AddRemoveListCell cell) {
+                cell.updatePendingState();
+                cell.updateMarkedState();
+            }
+        });
+    }
+
+    /**
+     * Does something to each cell in the ListView that's showing (the matches, if we're filtering).
+     */
+    private void forEachCell(Consumer<AddRemoveComboBox<?>.AddRemoveListCell> action) {
+        ListView<T> listView = filter != null && filter.isFiltering() ? resultsView : getListView();
+        for (Node node : listView.lookupAll(".add-remove-list-cell")) {
+            if (node instanceof AddRemoveComboBox.AddRemoveListCell) {
+                action.accept((AddRemoveComboBox<?>.AddRemoveListCell) node);
+            }
+        }
+    }
+
+    /**
+     * @return the height of a row in the popup, or -1 if there aren't any rows showing to measure.
+     */
+    private double measureRowHeight() {
+        ListView<T> listView = getListView();
+        if (listView.getFixedCellSize() > 0) {
+            return listView.getFixedCellSize();
+        }
+
+        for (Node node : listView.lookupAll(".list-cell")) {
+            if (node instanceof ListCell && ((ListCell<?>) node).getHeight() > 0) {
+                return ((ListCell<?>) node).getHeight();
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the ListView shown in the popup.
+     */
+    @SuppressWarnings("unchecked")
+    private ListView<T> getListView() {
+        return (ListView<T>) super.getPopupContent();
+    }
+
+    @Override
+    public void dispose() {
+        comboBox.removeEventHandler(ComboBoxBase.ON_SHOWING, onShowing);
+        comboBox.removeEventHandler(ComboBoxBase.ON_SHOWN, onShown);
+        comboBox.removeEventHandler(ComboBoxBase.ON_HIDDEN, onHidden);
+        if (filter != null) {
+            filter.dispose();
+        }
+        comboBox.getPendingItems().removeListener(onPendingChanged);
+        comboBox.getMarkedItems().removeListener(onMarkedChanged);
+        if (onMarkedCountChanged != null) {
+            comboBox.getMarkedItems().removeListener(onMarkedCountChanged);
+        }
+        comboBox.fixedCellSizeProperty().removeListener(onFixedCellSizeChanged);
+        comboBox.itemsProperty().removeListener(onItemsReplaced);
+        comboBox.converterProperty().removeListener(onTextChanged);
+        comboBox.cellFactoryProperty().removeListener(onCellFactoryChanged);
+        comboBox.getProperties().remove(ROWS_TO_MEASURE_WIDTH);
+        getListView().fixedCellSizeProperty().unbind();
+        watchItems(null);
+        super.dispose();
+    }
+}
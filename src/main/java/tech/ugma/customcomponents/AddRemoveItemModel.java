@@ -0,0 +1,1554 @@
+package tech.ugma.customcomponents;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.scene.control.SelectionModel;
+import javafx.util.StringConverter;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The items of one or more AddRemoveComboBoxes, along with the work of keeping them in order.
+ * <p>
+ * Every AddRemoveComboBox has one of these. Normally it's made for it behind the scenes, but when lots of
+ * combo boxes show the same items (say, one in every row of a table), make one model and hand it to each
+ * of them:
+ * <pre>
+ * <code>AddRemoveItemModel&lt;String&gt; vendors = new AddRemoveItemModel&lt;&gt;(vendorList);
+ * ...
+ * AddRemoveComboBox&lt;String&gt; comboBox = new AddRemoveComboBox&lt;&gt;(vendors);</code>
+ * </pre>
+ * That way the items are kept in order once, not once per combo box, and there's only one listener on the
+ * list no matter how many combo boxes there are. The model only holds on to its combo boxes weakly, so a
+ * combo box that's thrown away (like when a table row is recycled) can be garbage collected.
+ * <p>
+ * The sorting settings belong to the model, so changing them on one combo box changes them for all of the
+ * combo boxes sharing it.
+ *
+ * @param <T> the type of the items
+ */
+@SuppressWarnings("Convert2Lambda")
+public class AddRemoveItemModel<T> {
+
+    /**
+     * How many items that sort the same as the one being removed are looked through before leaving it to the
+     * index to find.
+     */
+    private static final int MAX_TIES_SEARCHED = 32;
+
+    /**
+     * {@link #applyChanges(List)} makes a batch a change at a time unless it's at least this big a fraction of the
+     * list.
+     */
+    private static final int SMALL_BATCH_RATIO = 8;
+
+    /**
+     * The items, kept in order.
+     */
+    private final ObservableList<T> items;
+
+    /**
+     * Holds on to each item's collation key so sorting doesn't have to collate the same strings over
+     * and over again.
+     */
+    private final SortKeyCache<T> sortKeys;
+
+    /**
+     * How much, and how recently, each item's been picked (for sorting by usage).
+     */
+    private final UsageScores<T> usage;
+
+    /**
+     * This decides what order the items go in.
+     */
+    private final Comparator<T> itemComparator;
+
+    /**
+     * Turns items into text (for sorting, and for matching duplicates by their text).
+     */
+    private final Function<? super T, String> textOf;
+
+    /**
+     * Knows which items are in the list, and where, so they can be found without searching the whole list.
+     * (Null for paged lists; there's no way to index items that haven't been loaded.)
+     */
+    private final ItemIndex<T> index;
+
+    /**
+     * Finds items by what they start with (or what their words do), for filtering. Made the first time a
+     * combo box filters these items.
+     */
+    private PrefixIndex<T> prefixIndex;
+
+    /**
+     * The last few additions and removals, so they can be undone.
+     */
+    private final UndoLog<T> undoLog = new UndoLog<>(UndoLog.DEFAULT_CAPACITY);
+
+    /**
+     * Whether changes to the list go into the undo history right now. (They don't while they're being undone
+     * or redone, or when they aren't the user's doing.)
+     */
+    private boolean recordUndo = true;
+
+    private final ReadOnlyBooleanWrapper canUndo = new ReadOnlyBooleanWrapper(this, "canUndo", false);
+    private final ReadOnlyBooleanWrapper canRedo = new ReadOnlyBooleanWrapper(this, "canRedo", false);
+
+    /**
+     * What to do when an item that's already in the list is added again.
+     */
+    private DuplicatePolicy duplicatePolicy = DuplicatePolicy.ALLOW;
+
+    /**
+     * Which items count as duplicates, when duplicates aren't allowed.
+     */
+    private DuplicateMatching duplicateMatching = DuplicateMatching.EXACT;
+
+    /**
+     * Decides which items count as duplicates, when it's been set; it takes the place of the duplicate matching.
+     */
+    private Function<? super T, ?> duplicateKey;
+
+    /**
+     * Where sorting and comparing are counted, when metrics are turned on.
+     */
+    private final AddRemoveMetrics metrics;
+
+    /**
+     * Controls whether or not the items should be sorted alphabetically.
+     * <p>
+     * I've got it set to false by default, because normal ComboBox behavior is to *not* sort items.
+     */
+    private boolean sortAlphabetically = false;
+
+    /**
+     * Controls whether the most used items go first. (When sorting alphabetically too, items that have been
+     * used just as much are in alphabetical order.)
+     */
+    private boolean sortByUsage = false;
+
+    /**
+     * Keeps track of whether we're the ones moving items around in the list. If we are, the listener on the
+     * item list will leave the changes alone. See {@link #initItemOrderManager()}
+     */
+    private boolean isMaintainingOrder;
+
+    /**
+     * Whether the order manager is moving items around (or taking out the placeholder) from inside its own
+     * listener. See {@link #initItemOrderManager()}.
+     */
+    private boolean isRelocating;
+
+    /**
+     * Whether items that were added out of place (on the JavaFX Application Thread) are put in order once per
+     * pulse, rather than right away.
+     */
+    private boolean coalesceChanges = true;
+
+    /**
+     * Whether there are items out of place, waiting for the next pulse to be put in order.
+     */
+    private boolean orderPending;
+
+    /**
+     * Puts the items in order at the start of the next pulse (before CSS and layout), then stops.
+     * Made the first time it's needed.
+     */
+    private AnimationTimer orderPass;
+
+    /**
+     * Whether someone's put the old add button placeholder in the list, asking for the add button.
+     */
+    private boolean addButtonRequested;
+
+    /**
+     * The combo boxes showing these items. They're only weakly referenced, so they can be garbage
+     * collected without having to remember to unsubscribe.
+     */
+    private final List<WeakReference<AddRemoveComboBox<T>>> subscribers = new ArrayList<>();
+
+    /**
+     * Told about every change to the items as it was made, before the order manager moves anything (see
+     * {@link #watchChanges(ListChangeListener)}).
+     */
+    private final List<ListChangeListener<T>> changeWatchers = new ArrayList<>();
+
+    /**
+     * Makes a model whose items are sorted (if they're sorted) by their {@code toString()}.
+     *
+     * @param items the items
+     */
+    public AddRemoveItemModel(ObservableList<T> items) {
+        this(items, new Function<T, String>() {
+            @Override
+            public String apply(T item) {
+                return item == null ? "" : item.toString();
+            }
+        }, new AddRemoveMetrics());
+    }
+
+    /**
+     * Makes a model whose items are sorted (if they're sorted) by the text the converter gives them.
+     *
+     * @param items     the items
+     * @param converter turns items into the text they're sorted by
+     */
+    public AddRemoveItemModel(ObservableList<T> items, StringConverter<T> converter) {
+        this(items, converter::toString, new AddRemoveMetrics());
+    }
+
+    /**
+     * @param items  the items
+     * @param textOf  turns items into the text they're sorted by
+     * @param metrics where sorting and comparing are counted
+     */
+    AddRemoveItemModel(ObservableList<T> items, Function<? super T, String> textOf, AddRemoveMetrics metrics) {
+        if (items == null) {
+            throw new NullPointerException("List passed to constructor is null.");
+        }
+        this.items = items;
+        this.metrics = metrics;
+        this.textOf = textOf;
+        this.sortKeys = new SortKeyCache<>(textOf);
+        this.usage = new UsageScores<>(textOf);
+
+        //Make the comparator that decides what order the items go in
+        this.itemComparator = initItemComparator();
+
+        //Listen for every time the list is changed; when it is, put any newcomers in their place.
+        if (isPaged()) {
+            //The items come from an ItemProvider, which keeps them in order itself. Sorting would mean
+            //loading every single item, which is what we're trying to avoid. (Same goes for indexing them.)
+            this.index = null;
+            return;
+        }
+
+        //Older code asks for the add button by putting a placeholder in the list.
+        if (items.contains(AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER)) {
+            items.removeAll(Collections.singleton(AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER));
+            addButtonRequested = true;
+        }
+
+        //Get the list in order once; from here on out it's only ever *kept* in order.
+        reorderAll();
+
+        //The order manager tells the index about every change itself (see initItemOrderManager() for why).
+        this.index = new ItemIndex<>(items);
+        items.addListener(initItemOrderManager());
+    }
+
+    /**
+     * Tells a listener about every change to the items, the way it was made, before anything's moved to keep
+     * them in order. That's for listeners that care which items were added and removed (like ones that save
+     * them): a plain listener on the items can be told about the moves first, and by the time it hears about
+     * the change that caused them, its added items aren't where the change says they are anymore. The moves
+     * themselves aren't passed on; the same items are still there.
+     * <p>
+     * Paged items are never moved, so for them this is just a listener on the items.
+     */
+    void watchChanges(ListChangeListener<T> watcher) {
+        if (isPaged()) {
+            items.addListener(watcher);
+        } else {
+            changeWatchers.add(watcher);
+        }
+    }
+
+    void unwatchChanges(ListChangeListener<T> watcher) {
+        if (isPaged()) {
+            items.removeListener(watcher);
+        } else {
+            changeWatchers.remove(watcher);
+        }
+    }
+
+    /**
+     * @return the items, in order.
+     */
+    public ObservableList<T> getItems() {
+        return items;
+    }
+
+    /**
+     * Makes the comparator that decides what order the items go in. Since the add button isn't in the
+     * list, all this has to worry about is real items.
+     *
+     * @return a comparator that puts the most used items first if we're sorting by usage, then sorts
+     * alphabetically if we're sorting, and otherwise considers all items equal (which keeps them in the
+     * order they were added).
+     */
+    private Comparator<T> initItemComparator() {
+        return new Comparator<T>() {
+            @Override
+            public int compare(T o1, T o2) {
+                if (AddRemoveMetrics.isRecording()) {
+                    metrics.record(AddRemoveMetrics.Metric.COMPARISONS, 1);
+                }
+
+                if (sortByUsage) {
+                    int byUsage = usage.compare(o1, o2);
+                    if (byUsage != 0 || !sortAlphabetically) {
+                        return byUsage;
+                    }
+                }
+
+                if (sortAlphabetically) {
+                    //Sort things in alphabetical order (by their cached sort keys).
+                    return sortKeys.compare(o1, o2);
+                } else {
+                    return 0;
+                }
+            }
+        };
+    }
+
+    /**
+     * Makes a list change listener that keeps the items in order (alphabetical, if we're sorting).
+     * <p>
+     * The list is assumed to already be in order, so there's no need to re-sort the whole thing every
+     * time it changes. Removing an item can't put anything out of order, so removals only evict sort keys.
+     * Added items are only checked against their neighbors.
+     * <p>
+     * If one's out of place, and we're on the JavaFX Application Thread, nothing is moved yet; the list is
+     * put in order once, at the start of the next pulse. That way, code that adds items one at a time in a
+     * loop costs one ordering pass, not one per item, and the list is in order again before it's next drawn.
+     * (Anywhere else, or with coalescing turned off, an out of place item gets moved to its (binary-searched)
+     * proper position straight away.)
+     * <p>
+     * This is also what keeps the index up to date. It has to be: a change made from inside a list change
+     * listener is merged into the change being announced (an item added and then taken straight back out
+     * again isn't announced at all), so a separate listener on the index could miss some of what we do
+     * here. Instead, the index is told about each change before anything is moved, and then told what
+     * moving things around did.
+     *
+     * @return a list change listener that keeps the items in order.
+     */
+    private ListChangeListener<T> initItemOrderManager() {
+        return new ListChangeListener<T>() {
+            @Override
+            public void onChanged(Change<? extends T> c) {
+                if (isRelocating) {
+                    //This is us, moving things around below; the index is told about that separately.
+                    return;
+                }
+                index.onChanged(c);
+                c.reset();
+                if (prefixIndex != null) {
+                    prefixIndex.onChanged(c);
+                    c.reset();
+                }
+                if (recordUndo) {
+                    recordUndo(c);
+                    c.reset();
+                }
+                for (ListChangeListener<T> watcher : changeWatchers) {
+                    watcher.onChanged(c);
+                    c.reset();
+                }
+
+                if (isMaintainingOrder) {
+                    //We're the ones moving things around, so there's nothing to check.
+                    return;
+                }
+
+                //Gather up whatever got added in the wrong place. We can't move anything
+                //until we're done walking through the change.
+                List<T> misplaced = new ArrayList<>();
+                boolean placeholderAdded = false;
+                while (c.next()) {
+                    if (c.wasRemoved()) {
+                        //Removed items won't be compared anymore, so let go of their sort keys.
+                        for (T removed : c.getRemoved()) {
+                            sortKeys.evict(removed);
+                            usage.evict(removed);
+                        }
+                    }
+                    if (c.wasAdded()) {
+                        //Items added together are only in order if the whole run of them is. (Checking each
+                        //one against its neighbors alone would miss the last of a run added at the end, say,
+                        //when its neighbor is one of the others that's out of place.)
+                        boolean runInOrder = true;
+                        for (int i = c.getFrom(); i < c.getTo(); i++) {
+                            if (AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(items.get(i))) {
+                                placeholderAdded = true;
+                            } else if (!isInOrder(items, i)) {
+                                runInOrder = false;
+                            }
+                        }
+                        if (!runInOrder) {
+                            for (int i = c.getFrom(); i < c.getTo(); i++) {
+                                if (!AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(items.get(i))) {
+                                    misplaced.add(items.get(i));
+                                }
+                            }
+                        }
+                    }
+                }
+
+                if (!misplaced.isEmpty() && coalesceChanges && Platform.isFxApplicationThread()) {
+                    //Leave them where they are for now; they'll all be put in order in one go.
+                    scheduleOrderPass();
+                    misplaced.clear();
+                }
+
+                if (placeholderAdded || !misplaced.isEmpty()) {
+                    long start = AddRemoveMetrics.isRecording() ? System.nanoTime() : 0;
+                    isMaintainingOrder = true;
+                    isRelocating = true;
+                    try {
+                        if (placeholderAdded) {
+                            //The add button isn't an item anymore; show the real one instead.
+                            items.removeAll(Collections.singleton(AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER));
+                            index.rebuild();
+                            addButtonRequested = true;
+                            forEachSubscriber(new Consumer<AddRemoveComboBox<T>>() {
+                                @Override
+                                public void accept(AddRemoveComboBox<T> comboBox) {
+                                    comboBox.setShowAddButton(true);
+                                }
+                            });
+                        }
+                        for (T item : misplaced) {
+                            //Take it out, then put it back where it belongs
+                            int from = index.indexOf(item);
+                            items.remove(from);
+                            int to = insertionPoint(items, item);
+                            items.add(to, item);
+                            //The same items are there, but the ones in between have moved
+                            index.forgetPositionsFrom(Math.min(from, to));
+                        }
+                    } finally {
+                        isRelocating = false;
+                        isMaintainingOrder = false;
+                    }
+
+                    if (AddRemoveMetrics.isRecording() && !misplaced.isEmpty()) {
+                        metrics.record(AddRemoveMetrics.Metric.REORDERS, misplaced.size());
+                        metrics.record(AddRemoveMetrics.Metric.REORDER_NANOS, System.nanoTime() - start);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Puts a change to the list into the undo history, as one step.
+     * <p>
+     * Each removal is recorded at the spot it was removed from, and each addition where it was added, in the
+     * order they happened, so undoing them backwards puts everything back where it was.
+     */
+    private void recordUndo(ListChangeListener.Change<? extends T> c) {
+        //Unless it's part of a bigger step, like a batch of removals made one at a time
+        boolean ownStep = !undoLog.isStepOpen();
+        if (ownStep) {
+            undoLog.beginStep();
+        }
+        try {
+            while (c.next()) {
+                if (c.wasPermutated() || c.wasUpdated()) {
+                    //Nothing was added or removed
+                    continue;
+                }
+                for (T removed : c.getRemoved()) {
+                    if (!AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(removed)) {
+                        undoLog.record(false, removed, c.getFrom());
+                    }
+                }
+                for (int i = c.getFrom(); i < c.getTo(); i++) {
+                    T added = items.get(i);
+                    if (!AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(added)) {
+                        undoLog.record(true, added, i);
+                    }
+                }
+            }
+        } finally {
+            if (ownStep) {
+                undoLog.endStep();
+            }
+        }
+        updateUndoState();
+    }
+
+    /**
+     * Checks the item at the given index against its neighbors.
+     *
+     * @param items the (otherwise ordered) list of items
+     * @param index the index of the item to check
+     * @return true if the item doesn't belong anywhere else
+     */
+    private boolean isInOrder(List<T> items, int index) {
+        T item = items.get(index);
+        if (index > 0 && itemComparator.compare(items.get(index - 1), item) > 0) {
+            return false;
+        }
+        return index >= items.size() - 1 || itemComparator.compare(item, items.get(index + 1)) <= 0;
+    }
+
+    /**
+     * Binary searches an ordered list for where an item belongs. If there are items that are "equal"
+     * to the new one, the new item goes after them, so that when we're not sorting alphabetically
+     * things stay in the order they were added.
+     *
+     * @param items an ordered list of items
+     * @param item  the item to find a spot for
+     * @return the index the item should be inserted at
+     */
+    private int insertionPoint(List<T> items, T item) {
+        int low = 0;
+        int high = items.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (itemComparator.compare(items.get(middle), item) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Sorts the whole list, once. This is only needed when the list might not already be in order, like
+     * when it's first handed to us or when alphabetical sorting is turned on.
+     */
+    private void reorderAll() {
+        if (items.size() < 2 || isPaged()) {
+            return;
+        }
+
+        long start = AddRemoveMetrics.isRecording() ? System.nanoTime() : 0;
+        isMaintainingOrder = true;
+        try {
+            items.sort(itemComparator);
+        } finally {
+            isMaintainingOrder = false;
+        }
+
+        if (AddRemoveMetrics.isRecording()) {
+            metrics.recordTimed(AddRemoveMetrics.Metric.SORTS, AddRemoveMetrics.Metric.SORT_NANOS, start);
+        }
+    }
+
+    /**
+     * Has the items put in order at the start of the next pulse, if that isn't already going to happen.
+     */
+    private void scheduleOrderPass() {
+        if (orderPending) {
+            return;
+        }
+        orderPending = true;
+
+        if (orderPass == null) {
+            orderPass = new AnimationTimer() {
+                @Override
+                public void handle(long now) {
+                    flushOrder();
+                }
+            };
+        }
+        orderPass.start();
+    }
+
+    /**
+     * The items are in order as of now, so the pass that was going to put them in order isn't needed.
+     */
+    private void cancelOrderPass() {
+        orderPending = false;
+        if (orderPass != null) {
+            orderPass.stop();
+        }
+    }
+
+    /**
+     * Puts any items that were added out of place in order right now, instead of waiting for the next pulse.
+     * Call this if you need the list to be in order straight after changing it.
+     */
+    public void flushOrder() {
+        if (!orderPending) {
+            return;
+        }
+        cancelOrderPass();
+
+        //Everything around the newcomers is still in order, so this sort has very little to do.
+        reorderAll();
+    }
+
+    /**
+     * Makes a whole batch of changes to the items all at once. See {@link AddRemoveComboBox#updateItems(Consumer)}.
+     * <p>
+     * Every combo box showing these items that has its popup open gets it refreshed, once.
+     *
+     * @param changes makes whatever additions and removals are needed to the list it's given.
+     *                (Order doesn't matter; the list will be put in order afterwards.)
+     */
+    public void updateItems(Consumer<? super List<T>> changes) {
+        updateItems(changes, true);
+    }
+
+    /**
+     * @param changes  makes whatever additions and removals are needed to the list it's given
+     * @param undoable whether the batch goes into the undo history (as one step). Batches that aren't the
+     *                 user's doing, like items loaded from a file, shouldn't.
+     */
+    void updateItems(Consumer<? super List<T>> changes, boolean undoable) {
+        if (isPaged()) {
+            //Copying the whole list is out of the question; each change goes straight to the provider,
+            //but they're all announced as one.
+            ((PagedItemList<T>) items).batch(new Runnable() {
+                @Override
+                public void run() {
+                    changes.accept(items);
+                }
+            });
+        } else {
+            List<T> updated = new ArrayList<>(items);
+
+            if (undoable && recordUndo && undoLog.capacity() > 0) {
+                //Each change to the copy is recorded as it's made, so the batch can be undone in one step
+                undoLog.beginStep();
+                try {
+                    changes.accept(undoLog.recording(updated));
+                } finally {
+                    undoLog.endStep();
+                }
+            } else {
+                changes.accept(updated);
+            }
+
+            //One ordering pass for the whole batch
+            long start = AddRemoveMetrics.isRecording() ? System.nanoTime() : 0;
+            updated.sort(itemComparator);
+            if (AddRemoveMetrics.isRecording()) {
+                metrics.recordTimed(AddRemoveMetrics.Metric.SORTS, AddRemoveMetrics.Metric.SORT_NANOS, start);
+            }
+            if (sortAlphabetically) {
+                sortKeys.retainOnly(updated);
+            }
+            if (sortByUsage) {
+                usage.retainOnly(updated);
+            }
+
+            //One change notification for the whole batch. (It's already in the undo history, if it's going in.)
+            boolean wasRecordingUndo = recordUndo;
+            isMaintainingOrder = true;
+            recordUndo = false;
+            try {
+                items.setAll(updated);
+            } finally {
+                isMaintainingOrder = false;
+                recordUndo = wasRecordingUndo;
+            }
+            updateUndoState();
+
+            //That's everything in order, including anything that was waiting for the next pulse.
+            cancelOrderPass();
+        }
+
+        //One popup refresh for the whole batch (for whichever combo boxes are open)
+        refreshShowingPopups();
+    }
+
+    /**
+     * Makes a batch of additions and removals, in order, without putting them in the undo history (they're not
+     * the user's doing; they come from another thread, or another program sharing the file).
+     * <p>
+     * A batch that's small next to the list is made a change at a time, each one put right where it belongs
+     * (and found, to be removed, without searching), so it costs about the same however long the list is. A
+     * batch that's big next to the list is made with one {@link #updateItems(Consumer)}, so one ordering pass
+     * and one change notification; that goes through the whole list once, but so would that many separate
+     * changes.
+     *
+     * @param changes the changes, in the order they were made
+     */
+    void applyChanges(List<ItemChange<T>> changes) {
+        if (isPaged() || changes.size() * SMALL_BATCH_RATIO <= items.size()) {
+            withoutUndo(new Runnable() {
+                @Override
+                public void run() {
+                    for (ItemChange<T> change : changes) {
+                        if (change.addition) {
+                            addItem(change.item);
+                        } else {
+                            removeItem(change.item);
+                        }
+                    }
+                }
+            });
+            refreshShowingPopups();
+        } else {
+            boolean skipDuplicates = duplicatePolicy != DuplicatePolicy.ALLOW;
+            Function<? super T, ?> keyOf = duplicateKeyFunction();
+
+            //Work out what the batch adds and removes before touching the list. Duplicates are checked against
+            //the (indexed) items as they are, plus whatever this batch has added and removed so far; the same goes
+            //for whether there's anything there to remove.
+            List<T> additions = new ArrayList<>();
+            Map<T, Integer> net = new HashMap<>();
+
+            //Whether there's an item with each duplicate key the batch has touched, as of the change being looked
+            //at. (Without duplicates, there's only ever one item per key, so removing it leaves none.)
+            Map<Object, Boolean> keyTaken = new HashMap<>();
+
+            for (ItemChange<T> change : changes) {
+                if (change.addition) {
+                    if (skipDuplicates) {
+                        Object key = keyOf.apply(change.item);
+                        Boolean taken = keyTaken.get(key);
+                        if (taken == null ? findDuplicate(change.item) != null : taken) {
+                            continue;
+                        }
+                        keyTaken.put(key, true);
+                    }
+                    additions.add(change.item);
+                    net.merge(change.item, 1, Integer::sum);
+                } else if (countOf(change.item) + net.getOrDefault(change.item, 0) > 0) {
+                    net.merge(change.item, -1, Integer::sum);
+                    if (skipDuplicates) {
+                        keyTaken.put(keyOf.apply(change.item), false);
+                    }
+                }
+            }
+
+            //What's left over: a positive count is how many of the additions to keep, a negative one how many of
+            //the items already there to take out (all in one pass, rather than searching the list for each).
+            Map<T, Integer> toAdd = new HashMap<>();
+            Map<T, Integer> toRemove = new HashMap<>();
+            for (Map.Entry<T, Integer> entry : net.entrySet()) {
+                if (entry.getValue() > 0) {
+                    toAdd.put(entry.getKey(), entry.getValue());
+                } else if (entry.getValue() < 0) {
+                    toRemove.put(entry.getKey(), -entry.getValue());
+                }
+            }
+            if (toAdd.isEmpty() && toRemove.isEmpty()) {
+                return;
+            }
+
+            updateItems(new Consumer<List<T>>() {
+                @Override
+                public void accept(List<T> updated) {
+                    if (!toRemove.isEmpty()) {
+                        updated.removeIf(item -> take(toRemove, item));
+                    }
+                    for (T item : additions) {
+                        if (take(toAdd, item)) {
+                            updated.add(item);
+                        }
+                    }
+                }
+            }, false);
+        }
+    }
+
+    /**
+     * Removes a batch of items (one for each time an item's listed), as one step in the undo history.
+     * <p>
+     * Like {@link #applyChanges(List)}, a batch that's small next to the list is removed an item at a time, each
+     * one found without searching, so it costs about the same however long the list is; a batch that's big next
+     * to the list is removed with one {@link #updateItems(Consumer)}.
+     *
+     * @param removals the items to remove
+     */
+    void removeItems(List<T> removals) {
+        if (isPaged() || removals.size() * SMALL_BATCH_RATIO <= items.size()) {
+            boolean oneStep = recordUndo && undoLog.capacity() > 0;
+            if (oneStep) {
+                undoLog.beginStep();
+            }
+            try {
+                for (T item : removals) {
+                    removeItem(item);
+                }
+            } finally {
+                if (oneStep) {
+                    undoLog.endStep();
+                }
+            }
+            refreshShowingPopups();
+        } else {
+            Map<T, Integer> toRemove = new HashMap<>();
+            for (T item : removals) {
+                toRemove.merge(item, 1, Integer::sum);
+            }
+            updateItems(new Consumer<List<T>>() {
+                @Override
+                public void accept(List<T> updated) {
+                    updated.removeIf(item -> take(toRemove, item));
+                }
+            });
+        }
+    }
+
+    /**
+     * Counts one off of an item's count, if it has one left.
+     *
+     * @return true if it had one left
+     */
+    private static <T> boolean take(Map<T, Integer> counts, T item) {
+        Integer count = counts.get(item);
+        if (count == null) {
+            return false;
+        }
+        if (count == 1) {
+            counts.remove(item);
+        } else {
+            counts.put(item, count - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Refreshes the popup of each combo box (showing these items) that has it open.
+     */
+    void refreshShowingPopups() {
+        forEachSubscriber(new Consumer<AddRemoveComboBox<T>>() {
+            @Override
+            public void accept(AddRemoveComboBox<T> comboBox) {
+                if (comboBox.isShowing()) {
+                    comboBox.refreshPopup();
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds an item right where it belongs: at the end, or, if we're sorting, in its alphabetical spot.
+     *
+     * @param item the item to add
+     */
+    public void addItem(T item) {
+        insertItem(item);
+    }
+
+    /**
+     * Adds an item the same way {@link #addItem(Object)} does.
+     *
+     * @return where it went, or -1 if it wasn't added (it's a duplicate) or the items are paged (so the
+     * provider decided where it went)
+     */
+    int insertItem(T item) {
+        if (duplicatePolicy != DuplicatePolicy.ALLOW && findDuplicate(item) != null) {
+            //It's already here
+            return -1;
+        }
+
+        if (isPaged()) {
+            //The provider decides where it goes
+            items.add(item);
+            return -1;
+        }
+
+        isMaintainingOrder = true;
+        try {
+            int position = insertionPoint(items, item);
+            items.add(position, item);
+            return position;
+        } finally {
+            isMaintainingOrder = false;
+        }
+    }
+
+    /**
+     * Takes back an item that was added (by {@link #insertItem(Object)}): that very item, rather than the
+     * first one equal to it, which might be an older one when duplicates are allowed.
+     *
+     * @param item  the item to take back out
+     * @param index where it was added (it might have moved since), or -1 if that isn't known
+     */
+    void takeBackItem(T item, int index) {
+        if (index >= 0 && index < items.size() && items.get(index) == item) {
+            items.remove(index);
+            return;
+        }
+        if (index >= 0 && !isPaged()) {
+            //Things have moved since. This only happens when a change couldn't be saved, so a search is fine.
+            for (int i = 0; i < items.size(); i++) {
+                if (items.get(i) == item) {
+                    items.remove(i);
+                    return;
+                }
+            }
+            //It's gone already
+            return;
+        }
+        removeItem(item);
+    }
+
+    /**
+     * Puts a removed item back. If we're not sorting, it goes back where it was, rather than at the end.
+     *
+     * @param item  the item to put back
+     * @param index where it was
+     */
+    void restoreItem(T item, int index) {
+        if (sortAlphabetically || sortByUsage || isPaged() || index < 0) {
+            addItem(item);
+            return;
+        }
+
+        isMaintainingOrder = true;
+        try {
+            items.add(Math.min(index, items.size()), item);
+        } finally {
+            isMaintainingOrder = false;
+        }
+    }
+
+    /**
+     * @param item the item to look for
+     * @return true if the item is in the list. (Without searching the list, unless the items are paged.)
+     */
+    public boolean contains(Object item) {
+        return index == null ? items.contains(item) : index.contains(item);
+    }
+
+    /**
+     * @param item the item to look for
+     * @return where the item is in the list, or -1 if it isn't. Usually without searching the whole list.
+     */
+    public int indexOf(Object item) {
+        return index == null ? items.indexOf(item) : index.indexOf(item);
+    }
+
+    /**
+     * Removes an item, using the index to find it rather than searching the list.
+     *
+     * @param item the item to remove
+     * @return true if it was there to remove
+     */
+    public boolean removeItem(Object item) {
+        if (index == null) {
+            return items.remove(item);
+        }
+
+        int position = positionOf(item);
+        if (position < 0) {
+            return false;
+        }
+        items.remove(position);
+        return true;
+    }
+
+    /**
+     * Finds an item that's to be removed. When the items are sorted (and in order right now), that's a binary
+     * search, which doesn't depend on how far the index has caught up since the last change. Otherwise, it's
+     * up to the index.
+     */
+    private int positionOf(Object item) {
+        if (!index.contains(item)) {
+            return -1;
+        }
+
+        if ((sortAlphabetically || sortByUsage) && !orderPending && !isPaged()) {
+            //It's in the list (we just checked), so it's one of ours
+            @SuppressWarnings("unchecked")
+            T target = (T) item;
+
+            int low = 0;
+            int high = items.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (itemComparator.compare(items.get(middle), target) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+
+            //Items the comparator can't tell apart sit together, and it's one of them. (Only a few are looked
+            //through; if there are lots of them, the index can do it.)
+            for (int i = low; i < items.size() && i < low + MAX_TIES_SEARCHED
+                    && itemComparator.compare(items.get(i), target) == 0; i++) {
+                if (Objects.equals(items.get(i), item)) {
+                    return i;
+                }
+            }
+        }
+        return index.indexOf(item);
+    }
+
+    /**
+     * @param item the item to count
+     * @return how many times the item is in the list.
+     */
+    int countOf(Object item) {
+        return index == null ? Collections.frequency(items, item) : index.count(item);
+    }
+
+    /**
+     * Looks for an item that the given one would be a duplicate of, going by the duplicate matching (or the
+     * duplicate key, if one's been set).
+     *
+     * @param item the item that might be a duplicate
+     * @return the item already in the list that it duplicates, or null if there isn't one
+     */
+    public T findDuplicate(T item) {
+        if (index == null) {
+            //Nothing's indexed, so there's no choice but to go looking
+            Function<? super T, ?> keyOf = duplicateKeyFunction();
+            Object key = keyOf.apply(item);
+            for (T existing : items) {
+                if (Objects.equals(keyOf.apply(existing), key)) {
+                    return existing;
+                }
+            }
+            return null;
+        }
+
+        if (duplicateKey == null && duplicateMatching == DuplicateMatching.EXACT) {
+            int position = index.indexOf(item);
+            return position < 0 ? null : items.get(position);
+        }
+        return index.findByKey(item);
+    }
+
+    /**
+     * @return a function that turns an item into whatever it's matched against other items by, when looking
+     * for duplicates.
+     */
+    Function<? super T, ?> duplicateKeyFunction() {
+        if (duplicateKey != null) {
+            return duplicateKey;
+        }
+        if (duplicateMatching == DuplicateMatching.EXACT) {
+            return Function.identity();
+        }
+        DuplicateMatching matching = duplicateMatching;
+        return new Function<T, Object>() {
+            @Override
+            public Object apply(T item) {
+                return matching.keyOf(textOf.apply(item));
+            }
+        };
+    }
+
+    /**
+     * Keeps the index's duplicate keys in step with the duplicate settings. Duplicate keys are only kept
+     * track of when they're needed: when duplicates aren't allowed, and matching isn't by plain equality
+     * (which the index handles already).
+     */
+    private void updateDuplicateKeys() {
+        if (index == null) {
+            return;
+        }
+        boolean needsKeys = duplicatePolicy != DuplicatePolicy.ALLOW
+                && (duplicateKey != null || duplicateMatching != DuplicateMatching.EXACT);
+        index.setKeyOf(needsKeys ? duplicateKeyFunction() : null);
+    }
+
+    public DuplicatePolicy getDuplicatePolicy() {
+        return duplicatePolicy;
+    }
+
+    /**
+     * Sets what happens when an item that's already in the list is added again. Items that are in the list
+     * already are left as they are, duplicates or not.
+     *
+     * @param duplicatePolicy ALLOW (the default), REJECT or MERGE
+     */
+    public void setDuplicatePolicy(DuplicatePolicy duplicatePolicy) {
+        if (duplicatePolicy == null) {
+            throw new NullPointerException("Duplicate policy can't be null.");
+        }
+        this.duplicatePolicy = duplicatePolicy;
+        updateDuplicateKeys();
+    }
+
+    public DuplicateMatching getDuplicateMatching() {
+        return duplicateMatching;
+    }
+
+    /**
+     * Sets which items count as duplicates of each other (when duplicates aren't allowed).
+     *
+     * @param duplicateMatching EXACT (the default), SAME_TEXT, IGNORE_CASE or IGNORE_CASE_AND_ACCENTS
+     */
+    public void setDuplicateMatching(DuplicateMatching duplicateMatching) {
+        if (duplicateMatching == null) {
+            throw new NullPointerException("Duplicate matching can't be null.");
+        }
+        this.duplicateMatching = duplicateMatching;
+        updateDuplicateKeys();
+    }
+
+    public Function<? super T, ?> getDuplicateKey() {
+        return duplicateKey;
+    }
+
+    /**
+     * Decides for yourself which items count as duplicates: two items are duplicates if this turns them into
+     * equal keys. This takes the place of the duplicate matching.
+     *
+     * @param duplicateKey turns an item into its duplicate key; null to go back to the duplicate matching
+     */
+    public void setDuplicateKey(Function<? super T, ?> duplicateKey) {
+        this.duplicateKey = duplicateKey;
+        updateDuplicateKeys();
+    }
+
+    /**
+     * Undoes the last addition or removal (or batch of them, from {@link #updateItems(Consumer)}).
+     * <p>
+     * Undoing and redoing change the list directly; they don't go through a combo box's commit handler.
+     * Paged items can't be undone.
+     *
+     * @return true if there was something to undo
+     */
+    public boolean undo() {
+        return replay(undoLog.undo());
+    }
+
+    /**
+     * Redoes the last thing that was undone, unless something else has been changed since.
+     *
+     * @return true if there was something to redo
+     */
+    public boolean redo() {
+        return replay(undoLog.redo());
+    }
+
+    /**
+     * Makes the additions and removals needed to undo (or redo) a step, without recording them.
+     */
+    private boolean replay(List<UndoLog.Edit<T>> edits) {
+        if (edits.isEmpty()) {
+            return false;
+        }
+
+        boolean wasRecordingUndo = recordUndo;
+        recordUndo = false;
+        try {
+            if (edits.size() == 1) {
+                UndoLog.Edit<T> edit = edits.get(0);
+                if (edit.addition) {
+                    restoreItem(edit.item, edit.index);
+                } else if (edit.index < items.size() && Objects.equals(items.get(edit.index), edit.item)) {
+                    items.remove(edit.index);
+                } else {
+                    removeItem(edit.item);
+                }
+                refreshShowingPopups();
+            } else {
+                updateItems(new Consumer<List<T>>() {
+                    @Override
+                    public void accept(List<T> list) {
+                        for (UndoLog.Edit<T> edit : edits) {
+                            if (edit.addition) {
+                                list.add(Math.min(edit.index, list.size()), edit.item);
+                            } else if (edit.index < list.size() && Objects.equals(list.get(edit.index), edit.item)) {
+                                list.remove(edit.index);
+                            } else {
+                                list.remove(edit.item);
+                            }
+                        }
+                    }
+                }, false);
+            }
+        } finally {
+            recordUndo = wasRecordingUndo;
+        }
+        updateUndoState();
+        return true;
+    }
+
+    /**
+     * Makes a change, and finds out which undo step (if any) it was recorded as, so that the step can be
+     * {@link #forgetUndoStep(long) forgotten} if the change turns out not to have stuck.
+     *
+     * @return the step it was recorded as, or -1 if it wasn't recorded
+     */
+    long recordedStep(Runnable change) {
+        long before = undoLog.lastRecordedStep();
+        change.run();
+        long after = undoLog.lastRecordedStep();
+        return after == before ? -1 : after;
+    }
+
+    /**
+     * Takes a step out of the undo history, as if it had never been recorded; for a change that's been taken
+     * back (like an addition that couldn't be saved), so that undoing doesn't replay something that never
+     * happened.
+     *
+     * @param step the step, from {@link #recordedStep(Runnable)}; -1 does nothing
+     */
+    void forgetUndoStep(long step) {
+        if (step >= 0) {
+            undoLog.forget(step);
+            updateUndoState();
+        }
+    }
+
+    /**
+     * Makes a change that doesn't go into the undo history, like taking back an addition that couldn't be saved.
+     */
+    void withoutUndo(Runnable change) {
+        boolean wasRecordingUndo = recordUndo;
+        recordUndo = false;
+        try {
+            change.run();
+        } finally {
+            recordUndo = wasRecordingUndo;
+        }
+    }
+
+    private void updateUndoState() {
+        canUndo.set(undoLog.canUndo());
+        canRedo.set(undoLog.canRedo());
+    }
+
+    /**
+     * @return true when there's something to undo. Handy for enabling an undo button or menu item.
+     */
+    public ReadOnlyBooleanProperty canUndoProperty() {
+        return canUndo.getReadOnlyProperty();
+    }
+
+    /**
+     * @return true when there's something to redo.
+     */
+    public ReadOnlyBooleanProperty canRedoProperty() {
+        return canRedo.getReadOnlyProperty();
+    }
+
+    /**
+     * Forgets everything that could have been undone or redone.
+     */
+    public void clearUndoHistory() {
+        undoLog.clear();
+        updateUndoState();
+    }
+
+    public int getUndoLimit() {
+        return undoLog.capacity();
+    }
+
+    /**
+     * Sets how many additions and removals are remembered for undoing. The memory this takes depends only on
+     * the limit, not on how many items there are. A batch with more changes in it than the limit can't be
+     * undone. Changing the limit forgets the history so far.
+     *
+     * @param undoLimit how many additions and removals to remember (128 by default); 0 turns undo off
+     */
+    public void setUndoLimit(int undoLimit) {
+        undoLog.setCapacity(undoLimit);
+        updateUndoState();
+    }
+
+    /**
+     * @return the index used to filter these items, made (in the background) if it hasn't been yet.
+     * @throws IllegalStateException if the items are paged; they can't be indexed without loading them all.
+     */
+    PrefixIndex<T> getPrefixIndex() {
+        if (index == null) {
+            throw new IllegalStateException("Items that come from an ItemProvider can't be filtered.");
+        }
+        if (prefixIndex == null) {
+            prefixIndex = new PrefixIndex<>(items, textOf);
+        }
+        return prefixIndex;
+    }
+
+    /**
+     * @return an empty sort key cache with the same rules as ours, for putting items in alphabetical order
+     * before they're added (see {@link ItemFiles}), or null if the items aren't simply sorted alphabetically.
+     */
+    SortKeyCache<T> copySortRules() {
+        return sortAlphabetically && !sortByUsage && !isPaged() ? sortKeys.copyRules() : null;
+    }
+
+    /**
+     * Takes the sort keys made while sorting items somewhere else, so they don't have to be made again
+     * when the items are added.
+     */
+    void adoptSortKeys(SortKeyCache<T> keys) {
+        sortKeys.adopt(keys);
+    }
+
+    /**
+     * @return how much sorting and comparing these items have taken (when metrics are turned on).
+     */
+    public AddRemoveMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return true if the items are coming from an ItemProvider, a page at a time.
+     */
+    boolean isPaged() {
+        return items instanceof PagedItemList;
+    }
+
+    /**
+     * Starts keeping (weak) track of a combo box showing these items.
+     */
+    void subscribe(AddRemoveComboBox<T> comboBox) {
+        subscribers.add(new WeakReference<>(comboBox));
+        if (addButtonRequested) {
+            comboBox.setShowAddButton(true);
+        }
+    }
+
+    void unsubscribe(AddRemoveComboBox<T> comboBox) {
+        subscribers.removeIf(reference -> reference.get() == null || reference.get() == comboBox);
+    }
+
+    /**
+     * Does something to every combo box still showing these items, forgetting the ones that have been
+     * garbage collected along the way.
+     */
+    private void forEachSubscriber(Consumer<AddRemoveComboBox<T>> action) {
+        Iterator<WeakReference<AddRemoveComboBox<T>>> iterator = subscribers.iterator();
+        while (iterator.hasNext()) {
+            AddRemoveComboBox<T> comboBox = iterator.next().get();
+            if (comboBox == null) {
+                iterator.remove();
+            } else {
+                action.accept(comboBox);
+            }
+        }
+    }
+
+    /**
+     * The way items are turned into text changed, so their sort keys (and maybe their order) did too.
+     */
+    void textChanged() {
+        sortKeys.clear();
+        if (index != null) {
+            index.refreshKeys();
+        }
+        if (prefixIndex != null) {
+            prefixIndex.rebuild();
+        }
+        usage.textChanged();
+        resortIfSortingAlphabetically();
+    }
+
+    public boolean isCoalesceChanges() {
+        return coalesceChanges;
+    }
+
+    /**
+     * Set this to false if code needs the items to be in order the moment after it adds one (rather than
+     * by the next pulse). Items added out of place will then be moved into place one at a time, right away.
+     *
+     * @param coalesceChanges true = put items in order once per pulse; false = put each item in order right away
+     */
+    public void setCoalesceChanges(boolean coalesceChanges) {
+        this.coalesceChanges = coalesceChanges;
+        if (!coalesceChanges) {
+            flushOrder();
+        }
+    }
+
+    public boolean isSortAlphabetically() {
+        return sortAlphabetically;
+    }
+
+    /**
+     * Set this to true if you want the items to be sorted alphabetically.
+     *
+     * @param sortAlphabetically true = do sort alphabetically; false = do not sort alphabetically
+     */
+    public void setSortAlphabetically(boolean sortAlphabetically) {
+        boolean wasSortingAlphabetically = this.sortAlphabetically;
+        this.sortAlphabetically = sortAlphabetically;
+
+        //The list is only *kept* in order, so it has to be put in order once when sorting is turned on.
+        if (sortAlphabetically && !wasSortingAlphabetically) {
+            reorderAll();
+        }
+    }
+
+    public boolean isSortByUsage() {
+        return sortByUsage;
+    }
+
+    /**
+     * Set this to true to have the items picked most often (and most recently) go first. Each time one's
+     * picked from a combo box's popup, it moves up to where its new score puts it. See {@link UsageScores}.
+     * <p>
+     * If alphabetical sorting is on too, items that have been used the same amount (like the ones that
+     * haven't been used at all) are in alphabetical order; otherwise they stay in the order they were added.
+     *
+     * @param sortByUsage true = most used items first; false = don't order by usage
+     */
+    public void setSortByUsage(boolean sortByUsage) {
+        boolean wasSortingByUsage = this.sortByUsage;
+        this.sortByUsage = sortByUsage;
+
+        //Same as alphabetical sorting; the list is put in order once, then kept that way.
+        if (sortByUsage && !wasSortingByUsage) {
+            reorderAll();
+        }
+    }
+
+    /**
+     * @return the usage scores, for saving, loading, or changing how quickly old picks stop counting.
+     */
+    public UsageScores<T> getUsageScores() {
+        return usage;
+    }
+
+    /**
+     * Counts an item as picked. If we're sorting by usage, it moves up to wherever its new score puts it.
+     * <p>
+     * Combo boxes showing these items call this whenever the user picks one from the popup, so you only need
+     * to call it for picks made some other way.
+     * <p>
+     * Only the picked item's score changes, and it can only go up, so everything else is still in order.
+     * Whether it has to move at all is found out by comparing it with the item in front of it; when it does,
+     * its new spot is binary searched for, and it's taken out and put back in there. Nothing else is
+     * compared, and the index only has to fix the positions of the items it moved past. The move doesn't go
+     * into the undo history.
+     * <p>
+     * Moving an item is announced as a removal and an addition, which (for a moment) changes which item the
+     * combo boxes showing it have selected; they have it selected again by the time this returns.
+     *
+     * @param item the item that was picked
+     */
+    public void recordUse(T item) {
+        if (item == null || AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(item)) {
+            return;
+        }
+        usage.recordUse(item);
+
+        if (!sortByUsage || isPaged()) {
+            return;
+        }
+        int from = indexOf(item);
+        if (from < 0 || isInOrder(items, from)) {
+            //It's moved up in the world, but not past anyone
+            return;
+        }
+
+        //Remember what everyone had selected, since moving the item will shift selections around
+        List<AddRemoveComboBox<T>> comboBoxes = new ArrayList<>();
+        List<T> selected = new ArrayList<>();
+        forEachSubscriber(new Consumer<AddRemoveComboBox<T>>() {
+            @Override
+            public void accept(AddRemoveComboBox<T> comboBox) {
+                comboBoxes.add(comboBox);
+                selected.add(comboBox.getSelectionModel().getSelectedItem());
+            }
+        });
+
+        long start = AddRemoveMetrics.isRecording() ? System.nanoTime() : 0;
+        isMaintainingOrder = true;
+        isRelocating = true;
+        try {
+            //Same as when the order manager relocates an item; the same items are there, so the prefix
+            //index (and the undo history) don't need to hear about it.
+            items.remove(from);
+            int to = insertionPoint(items, item);
+            items.add(to, item);
+            index.moved(from, to);
+        } finally {
+            isRelocating = false;
+            isMaintainingOrder = false;
+        }
+        if (AddRemoveMetrics.isRecording()) {
+            metrics.recordTimed(AddRemoveMetrics.Metric.REORDERS, AddRemoveMetrics.Metric.REORDER_NANOS, start);
+        }
+
+        for (int i = 0; i < comboBoxes.size(); i++) {
+            T wasSelected = selected.get(i);
+            SelectionModel<T> selection = comboBoxes.get(i).getSelectionModel();
+            if (wasSelected != null && !Objects.equals(selection.getSelectedItem(), wasSelected)) {
+                selection.select(indexOf(wasSelected));
+            }
+        }
+    }
+
+    /**
+     * Saves the usage scores to a file. See {@link UsageScores#save(Path)}.
+     *
+     * @param file where to save them
+     * @throws IOException if the file can't be written
+     */
+    public void saveUsage(Path file) throws IOException {
+        usage.save(file);
+    }
+
+    /**
+     * Loads usage scores saved by {@link #saveUsage(Path)} (last session, say), and puts the items in order by
+     * them if we're sorting by usage. A file that doesn't exist yet is skipped.
+     *
+     * @param file where the scores were saved
+     * @throws IOException if the file exists but can't be read
+     */
+    public void loadUsage(Path file) throws IOException {
+        usage.load(file);
+        if (sortByUsage) {
+            reorderAll();
+        }
+    }
+
+    public Locale getSortLocale() {
+        return sortKeys.getLocale();
+    }
+
+    /**
+     * Sets which locale's alphabet to sort by. (Only matters when sorting alphabetically.)
+     *
+     * @param locale the locale to sort by; null means the default locale.
+     */
+    public void setSortLocale(Locale locale) {
+        sortKeys.setLocale(locale);
+        resortIfSortingAlphabetically();
+    }
+
+    public int getSortStrength() {
+        return sortKeys.getStrength();
+    }
+
+    /**
+     * Sets how picky the alphabetical sort is about differences in accents and case.
+     *
+     * @param strength one of java.text.Collator's PRIMARY, SECONDARY, TERTIARY or IDENTICAL.
+     */
+    public void setSortStrength(int strength) {
+        sortKeys.setStrength(strength);
+        resortIfSortingAlphabetically();
+    }
+
+    public boolean isNaturalOrdering() {
+        return sortKeys.isNaturalOrdering();
+    }
+
+    /**
+     * Set this to true to have numbers inside of items sorted by their value instead of digit by digit,
+     * so that "Item 10" comes after "Item 9". (Only matters when sorting alphabetically.)
+     *
+     * @param naturalOrdering true = compare numbers by value; false = compare them like any other text
+     */
+    public void setNaturalOrdering(boolean naturalOrdering) {
+        sortKeys.setNaturalOrdering(naturalOrdering);
+        resortIfSortingAlphabetically();
+    }
+
+    /**
+     * The sorting rules changed (and the cached sort keys with them), so the list has to be put in order again.
+     */
+    private void resortIfSortingAlphabetically() {
+        if (sortAlphabetically) {
+            reorderAll();
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package tech.ugma.customcomponents;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts (and times) the things that make an AddRemoveComboBox slow: sorting, comparing items, making and
+ * updating cells, opening and closing the popup, and adding and removing items.
+ * <p>
+ * Nothing is recorded unless metrics are turned on, either with {@link #setEnabled(boolean)} or by starting
+ * the JVM with {@code -Dtech.ugma.customcomponents.metrics=true}. While they're off, all that's left of them
+ * is a check of one flag.
+ * <p>
+ * Every combo box has its own metrics ({@link AddRemoveComboBox#getMetrics()}), and everything is added up
+ * across all of them in {@link #getTotals()}. Sorting and comparing are the item model's work, so when a
+ * model is shared between combo boxes they're recorded in the model's metrics
+ * ({@link AddRemoveItemModel#getMetrics()}) rather than any one combo box's.
+ * <p>
+ * The totals show up over JMX as {@code tech.ugma.customcomponents:type=AddRemoveComboBox,name="Totals"} once
+ * metrics are turned on; a single combo box's metrics can be put there too, with {@link #registerMBean(String)}.
+ * To do something with each measurement as it's made, add a {@link Listener}.
+ */
+public final class AddRemoveMetrics implements AddRemoveMetricsMXBean {
+
+    /**
+     * The things that are counted. The ones ending in _NANOS are amounts of time; the rest are counts.
+     */
+    public enum Metric {
+        SORTS, SORT_NANOS,
+        REORDERS, REORDER_NANOS,
+        COMPARISONS,
+        CELLS_CREATED, UPDATE_ITEM_CALLS,
+        POPUP_SHOWS, POPUP_HIDES,
+        ADDITIONS, ADDITION_NANOS,
+        REMOVALS, REMOVAL_NANOS
+    }
+
+    /**
+     * Told about every measurement, as it's made. This is called on whatever thread made the measurement
+     * (almost always the JavaFX Application Thread), so keep it quick.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        void recorded(AddRemoveMetrics source, Metric metric, long amount);
+    }
+
+    private static final String DOMAIN = "tech.ugma.customcomponents";
+
+    /**
+     * Whether anything is being recorded, by any combo box.
+     */
+    private static volatile boolean enabled;
+
+    private static final AddRemoveMetrics TOTALS = new AddRemoveMetrics(null);
+
+    private static boolean totalsRegistered;
+
+    static {
+        if (Boolean.getBoolean(DOMAIN + ".metrics")) {
+            setEnabledForAll(true);
+        }
+    }
+
+    private final LongAdder[] counts = new LongAdder[Metric.values().length];
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Where everything recorded here is added up too; null for the totals themselves.
+     */
+    private final AddRemoveMetrics totals;
+
+    private ObjectName registeredName;
+
+    AddRemoveMetrics() {
+        this(TOTALS);
+    }
+
+    private AddRemoveMetrics(AddRemoveMetrics totals) {
+        this.totals = totals;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @return everything recorded by every AddRemoveComboBox, added up.
+     */
+    public static AddRemoveMetrics getTotals() {
+        return TOTALS;
+    }
+
+    /**
+     * @return true if metrics are being recorded. Check this before going to the trouble of measuring anything.
+     */
+    public static boolean isRecording() {
+        return enabled;
+    }
+
+    /**
+     * Turns metrics on or off for every AddRemoveComboBox. The first time they're turned on, the totals
+     * are registered with the platform MBean server.
+     */
+    public static void setEnabledForAll(boolean enabled) {
+        AddRemoveMetrics.enabled = enabled;
+        if (enabled) {
+            registerTotals();
+        }
+    }
+
+    private static synchronized void registerTotals() {
+        if (totalsRegistered) {
+            return;
+        }
+        totalsRegistered = true;
+        try {
+            TOTALS.registerMBean("Totals");
+        } catch (JMException e) {
+            //Someone else (another copy of this library, say) already has the name; the totals still work.
+        }
+    }
+
+    /**
+     * Adds to a count (or a time). Callers are expected to have checked {@link #isRecording()} first.
+     */
+    void record(Metric metric, long amount) {
+        counts[metric.ordinal()].add(amount);
+        for (Listener listener : listeners) {
+            listener.recorded(this, metric, amount);
+        }
+        if (totals != null) {
+            totals.record(metric, amount);
+        }
+    }
+
+    /**
+     * Counts one of something that took from {@code startNanos} until now.
+     */
+    void recordTimed(Metric count, Metric nanos, long startNanos) {
+        record(count, 1);
+        record(nanos, System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return how much of something has been recorded.
+     */
+    public long get(Metric metric) {
+        return counts[metric.ordinal()].sum();
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Makes these metrics visible over JMX, as {@code tech.ugma.customcomponents:type=AddRemoveComboBox,name="..."}.
+     * Remember to {@link #unregisterMBean()} when the combo box is done with, or the MBean server will keep it.
+     *
+     * @param name what to call them
+     * @throws JMException if the name's taken, or isn't allowed in an ObjectName
+     */
+    public synchronized void registerMBean(String name) throws JMException {
+        if (registeredName != null) {
+            throw new InstanceAlreadyExistsException("These metrics are already registered as " + registeredName);
+        }
+        ObjectName objectName = new ObjectName(DOMAIN + ":type=AddRemoveComboBox,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        registeredName = objectName;
+    }
+
+    public synchronized void unregisterMBean() {
+        if (registeredName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(registeredName);
+        } catch (InstanceNotFoundException ignored) {
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+        registeredName = null;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        setEnabledForAll(enabled);
+    }
+
+    @Override
+    public long getSorts() {
+        return get(Metric.SORTS);
+    }
+
+    @Override
+    public long getSortNanos() {
+        return get(Metric.SORT_NANOS);
+    }
+
+    @Override
+    public long getReorders() {
+        return get(Metric.REORDERS);
+    }
+
+    @Override
+    public long getReorderNanos() {
+        return get(Metric.REORDER_NANOS);
+    }
+
+    @Override
+    public long getComparisons() {
+        return get(Metric.COMPARISONS);
+    }
+
+    @Override
+    public long getCellsCreated() {
+        return get(Metric.CELLS_CREATED);
+    }
+
+    @Override
+    public long getUpdateItemCalls() {
+        return get(Metric.UPDATE_ITEM_CALLS);
+    }
+
+    @Override
+    public long getPopupShows() {
+        return get(Metric.POPUP_SHOWS);
+    }
+
+    @Override
+    public long getPopupHides() {
+        return get(Metric.POPUP_HIDES);
+    }
+
+    @Override
+    public long getAdditions() {
+        return get(Metric.ADDITIONS);
+    }
+
+    @Override
+    public long getAdditionNanos() {
+        return get(Metric.ADDITION_NANOS);
+    }
+
+    @Override
+    public long getRemovals() {
+        return get(Metric.REMOVALS);
+    }
+
+    @Override
+    public long getRemovalNanos() {
+        return get(Metric.REMOVAL_NANOS);
+    }
+
+    /**
+     * Sets every count back to zero. (Resetting one combo box's metrics doesn't touch the totals.)
+     */
+    @Override
+    public void reset() {
+        for (LongAdder count : counts) {
+            count.reset();
+        }
+    }
+}
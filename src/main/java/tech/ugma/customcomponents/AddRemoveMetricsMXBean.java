@@ -0,0 +1,60 @@
+package tech.ugma.customcomponents;
+
+/**
+ * What AddRemoveComboBox's metrics look like over JMX (in JConsole, VisualVM, etc.). See {@link AddRemoveMetrics}.
+ */
+public interface AddRemoveMetricsMXBean {
+
+    /**
+     * @return whether metrics are being recorded (by any AddRemoveComboBox).
+     */
+    boolean isEnabled();
+
+    /**
+     * Turns recording on or off, for every AddRemoveComboBox.
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return how many times the whole list was sorted.
+     */
+    long getSorts();
+
+    long getSortNanos();
+
+    /**
+     * @return how many items were added out of place and had to be moved to where they belong.
+     */
+    long getReorders();
+
+    long getReorderNanos();
+
+    /**
+     * @return how many times two items were compared to see which goes first.
+     */
+    long getComparisons();
+
+    long getCellsCreated();
+
+    long getUpdateItemCalls();
+
+    long getPopupShows();
+
+    long getPopupHides();
+
+    long getAdditions();
+
+    /**
+     * @return the total time from the start of each addition until it was done (saved, if there's a commit handler).
+     */
+    long getAdditionNanos();
+
+    long getRemovals();
+
+    long getRemovalNanos();
+
+    /**
+     * Sets every count back to zero.
+     */
+    void reset();
+}
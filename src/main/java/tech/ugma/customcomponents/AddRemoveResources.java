@@ -0,0 +1,45 @@
+package tech.ugma.customcomponents;
+
+import javafx.scene.image.Image;
+
+/**
+ * The stylesheet and images used by AddRemoveComboBox, its cells and its popup.
+ * <p>
+ * Everything here is shared: the images are loaded once (the first time a cell or popup needs them),
+ * no matter how many combo boxes or cells there are, and the stylesheet is always referred to by the same
+ * URL so JavaFX only parses it once.
+ */
+final class AddRemoveResources {
+
+    /**
+     * The URL of the stylesheet with the add/remove buttons' styles.
+     */
+    static final String STYLESHEET = AddRemoveResources.class.getResource("/add-remove-combo-box.css").toExternalForm();
+
+    private AddRemoveResources() {
+    }
+
+    /**
+     * @return the little '+' shown on the add button.
+     */
+    static Image getAddImage() {
+        return Images.ADD;
+    }
+
+    /**
+     * @return the little 'x' shown on every remove button.
+     */
+    static Image getRemoveImage() {
+        return Images.REMOVE;
+    }
+
+    /**
+     * Holds the images, so they aren't loaded until something actually shows one.
+     */
+    private static final class Images {
+        private static final Image ADD =
+                new Image(AddRemoveResources.class.getResource("/Plus-Math-15.png").toExternalForm());
+        private static final Image REMOVE =
+                new Image(AddRemoveResources.class.getResource("/Delete-15.png").toExternalForm());
+    }
+}
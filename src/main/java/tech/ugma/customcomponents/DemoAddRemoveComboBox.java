@@ -17,7 +17,7 @@ import javafx.stage.Stage;
  */
 public class DemoAddRemoveComboBox extends Application {
 
-    private AddRemoveComboBox addRemoveComboBox;
+    private AddRemoveComboBox<String> addRemoveComboBox;
 
     private Text submission;
 
@@ -29,9 +29,10 @@ public class DemoAddRemoveComboBox extends Application {
 
         BorderPane borderPane = new BorderPane();
         ObservableList<String> dummyList =
-                FXCollections.observableArrayList("Dummy", "List", AddRemoveComboBox.ADD_CELL_PLACEHOLDER);
+                FXCollections.observableArrayList("Dummy", "List");
 
-        addRemoveComboBox = new AddRemoveComboBox(dummyList);
+        addRemoveComboBox = new AddRemoveComboBox<>(dummyList);
+        addRemoveComboBox.setShowAddButton(true);
         addRemoveComboBox.setSortAlphabetically(false);
         BorderPane.setMargin(addRemoveComboBox, new Insets(10, 10, 10, 10));
         BorderPane.setAlignment(addRemoveComboBox, Pos.TOP_CENTER);
@@ -0,0 +1,52 @@
+package tech.ugma.customcomponents;
+
+import java.text.Normalizer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Which items count as duplicates of each other, when duplicates aren't allowed.
+ */
+public enum DuplicateMatching {
+
+    /**
+     * Items are duplicates if they're equal.
+     */
+    EXACT,
+
+    /**
+     * Items are duplicates if they're shown as the same text.
+     */
+    SAME_TEXT,
+
+    /**
+     * Items are duplicates if their text only differs in case (and in how its characters are encoded), so
+     * "Acme" and "ACME" are the same.
+     */
+    IGNORE_CASE,
+
+    /**
+     * Items are duplicates if their text only differs in case and accents, so "Caf&eacute;" and "CAFE" are the same.
+     */
+    IGNORE_CASE_AND_ACCENTS;
+
+    private static final Pattern ACCENTS = Pattern.compile("\\p{M}+");
+
+    /**
+     * @return what an item with this text is looked up by, when matching this way. (Not used for EXACT.)
+     */
+    String keyOf(String text) {
+        if (text == null) {
+            return "";
+        }
+        switch (this) {
+            case IGNORE_CASE:
+                return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+            case IGNORE_CASE_AND_ACCENTS:
+                String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+                return ACCENTS.matcher(decomposed).replaceAll("").toLowerCase(Locale.ROOT);
+            default:
+                return text;
+        }
+    }
+}
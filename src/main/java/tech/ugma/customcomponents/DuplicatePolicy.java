@@ -0,0 +1,25 @@
+package tech.ugma.customcomponents;
+
+/**
+ * What happens when an item is added that's already in the list. Which items count as "already in the
+ * list" is up to the {@link DuplicateMatching} (or your own duplicate key); see
+ * {@link AddRemoveItemModel#setDuplicatePolicy(DuplicatePolicy)}.
+ */
+public enum DuplicatePolicy {
+
+    /**
+     * Duplicates are added like anything else. (This is how a ComboBox normally behaves.)
+     */
+    ALLOW,
+
+    /**
+     * Duplicates aren't added. Adding one through {@link AddRemoveComboBox#commitAddition(Object)} fails
+     * with an IllegalArgumentException.
+     */
+    REJECT,
+
+    /**
+     * Duplicates aren't added; the item that's already there is used (and selected) instead.
+     */
+    MERGE
+}
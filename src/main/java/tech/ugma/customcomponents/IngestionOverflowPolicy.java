@@ -0,0 +1,24 @@
+package tech.ugma.customcomponents;
+
+/**
+ * What {@link AddRemoveComboBox#ingestAddition(Object)} and {@link AddRemoveComboBox#ingestRemoval(Object)} do
+ * when the items are coming in faster than the JavaFX Application Thread can take them, and the ingestion
+ * queue is full.
+ */
+public enum IngestionOverflowPolicy {
+
+    /**
+     * The calling thread waits until there's room. This slows the producers down to the speed of the UI.
+     */
+    BLOCK,
+
+    /**
+     * The new change is thrown away (and the call returns false).
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest change still waiting is thrown away to make room for the new one.
+     */
+    DROP_OLDEST
+}
@@ -0,0 +1,17 @@
+package tech.ugma.customcomponents;
+
+/**
+ * An addition or removal of one item, to be made along with others (see
+ * {@link AddRemoveItemModel#applyChanges(java.util.List)}).
+ *
+ * @param <T> the type of the item
+ */
+final class ItemChange<T> {
+    final T item;
+    final boolean addition;
+
+    ItemChange(T item, boolean addition) {
+        this.item = item;
+        this.addition = addition;
+    }
+}
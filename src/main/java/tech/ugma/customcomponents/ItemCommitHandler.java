@@ -0,0 +1,39 @@
+package tech.ugma.customcomponents;
+
+/**
+ * Checks and saves additions and removals made through an AddRemoveComboBox (to a database, say).
+ * <p>
+ * These are called on a background thread, never on the JavaFX Application Thread, so it's fine for them
+ * to take a while. The combo box doesn't wait around: the item shows up (or disappears) right away, and if
+ * any of these throw, the change is undone.
+ *
+ * @param <T> the type of the items
+ * @see AddRemoveComboBox#setCommitHandler(ItemCommitHandler)
+ */
+public interface ItemCommitHandler<T> {
+
+    /**
+     * Checks that an item is allowed to be added. Throw an exception if it isn't.
+     *
+     * @param item the item being added
+     * @throws Exception if the item can't be added; the addition will be undone
+     */
+    default void validateAddition(T item) throws Exception {
+    }
+
+    /**
+     * Saves an addition.
+     *
+     * @param item the item that was added
+     * @throws Exception if the addition couldn't be saved; it will be undone
+     */
+    void persistAddition(T item) throws Exception;
+
+    /**
+     * Saves a removal.
+     *
+     * @param item the item that was removed
+     * @throws Exception if the removal couldn't be saved; it will be undone
+     */
+    void persistRemoval(T item) throws Exception;
+}
@@ -0,0 +1,407 @@
+package tech.ugma.customcomponents;
+
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableSet;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs an AddRemoveComboBox's additions and removals through its {@link ItemCommitHandler} without
+ * holding up the JavaFX Application Thread.
+ * <p>
+ * Each change is made to the list right away (optimistically), and then checked and saved on a background
+ * thread. Until that's done, the item counts as pending. If it fails, the change is undone.
+ * There's a cap on how many changes can be pending at once; past that, new changes are turned away.
+ * <p>
+ * Everything here, apart from the handler's work itself, happens on the JavaFX Application Thread.
+ *
+ * @param <T> the type of the items
+ */
+class ItemCommitPipeline<T> {
+
+    /**
+     * How many changes can be pending at once, unless you say otherwise.
+     */
+    static final int DEFAULT_MAX_PENDING = 16;
+
+    /**
+     * Where handlers run if no executor has been given. Its threads are daemons, so they won't keep
+     * the application running.
+     */
+    private static ExecutorService defaultExecutor;
+
+    private final AddRemoveComboBox<T> comboBox;
+
+    private ItemCommitHandler<T> handler;
+
+    private Executor executor;
+
+    private int maxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * How many changes have been made but not yet checked and saved.
+     */
+    private int inFlight;
+
+    /**
+     * Items that have been added, but whose addition hasn't been saved yet.
+     */
+    private final ObservableSet<T> pendingItems = FXCollections.observableSet(new HashSet<T>());
+
+    /**
+     * How many additions of each pending item are still being saved. (Equal items can be added again before
+     * the first has been saved; the item stops being pending once they all have.)
+     */
+    private final Map<T, Integer> pendingCounts = new HashMap<>();
+
+    ItemCommitPipeline(AddRemoveComboBox<T> comboBox) {
+        this.comboBox = comboBox;
+    }
+
+    /**
+     * Adds an item now and saves it in the background. If saving fails, it's taken back out.
+     */
+    CompletableFuture<T> commitAddition(T item) {
+        AddRemoveItemModel<T> model = comboBox.getItemModel();
+        if (model.getDuplicatePolicy() != DuplicatePolicy.ALLOW) {
+            T existing = model.findDuplicate(item);
+            if (existing != null) {
+                return duplicate(item, existing, model.getDuplicatePolicy());
+            }
+        }
+
+        if (handler == null) {
+            comboBox.addItem(item);
+            return CompletableFuture.completedFuture(item);
+        }
+        if (inFlight >= maxPending) {
+            return rejected(item);
+        }
+
+        final ItemCommitHandler<T> handler = this.handler;
+        final int[] position = new int[1];
+        final long step = model.recordedStep(new Runnable() {
+            @Override
+            public void run() {
+                position[0] = model.insertItem(item);
+            }
+        });
+        inFlight++;
+        markPending(item);
+
+        return runInBackground(item, true, new Work() {
+            @Override
+            public void run() throws Exception {
+                handler.validateAddition(item);
+                handler.persistAddition(item);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                //Didn't work out; take this very item back out (not some older one equal to it). It never really
+                //happened, so it comes out of the undo history too.
+                model.withoutUndo(() -> model.takeBackItem(item, position[0]));
+                model.forgetUndoStep(step);
+
+                //Don't leave the combo box showing an item that isn't there anymore
+                if (Objects.equals(comboBox.getValue(), item) && !model.contains(item)) {
+                    comboBox.getSelectionModel().clearSelection();
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes an item now and saves that in the background. If saving fails, it's put back.
+     */
+    CompletableFuture<T> commitRemoval(T item) {
+        if (handler == null) {
+            comboBox.getItemModel().removeItem(item);
+            return CompletableFuture.completedFuture(item);
+        }
+        if (inFlight >= maxPending) {
+            return rejected(item);
+        }
+
+        final ItemCommitHandler<T> handler = this.handler;
+        final AddRemoveItemModel<T> model = comboBox.getItemModel();
+        final int index = model.indexOf(item);
+        final long step = model.recordedStep(() -> model.removeItem(item));
+        inFlight++;
+
+        return runInBackground(item, false, new Work() {
+            @Override
+            public void run() throws Exception {
+                handler.persistRemoval(item);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                //Didn't work out; put it back, and forget the removal was ever made.
+                model.withoutUndo(() -> comboBox.restoreItem(item, index));
+                model.forgetUndoStep(step);
+            }
+        });
+    }
+
+    /**
+     * Removes a bunch of items now, as one step in the undo history (a few of them a change at a time, lots of
+     * them in one batch; see {@link AddRemoveItemModel#removeItems(List)}), and saves each of those removals in
+     * the background. The ones that can't be saved are put back.
+     *
+     * @return completes with the removed items once they've all been saved, or fails (with the first problem)
+     * if any of them couldn't be.
+     */
+    CompletableFuture<List<T>> commitRemovals(List<T> items) {
+        if (handler != null && inFlight >= maxPending) {
+            CompletableFuture<List<T>> result = new CompletableFuture<>();
+            result.completeExceptionally(new RejectedExecutionException(
+                    "Too many changes are still being saved (" + inFlight + "); couldn't commit " + items.size() + " removals"));
+            return result;
+        }
+
+        final AddRemoveItemModel<T> model = comboBox.getItemModel();
+        final ItemCommitHandler<T> handler = this.handler;
+
+        //Where each one was, in case it has to be put back
+        final int[] positions = new int[items.size()];
+        if (handler != null) {
+            for (int i = 0; i < items.size(); i++) {
+                positions[i] = model.indexOf(items.get(i));
+            }
+        }
+
+        final long step = model.recordedStep(() -> model.removeItems(items));
+
+        if (handler == null) {
+            return CompletableFuture.completedFuture(items);
+        }
+
+        inFlight++;
+        CompletableFuture<List<T>> result = new CompletableFuture<>();
+        Map<Integer, Exception> failures = new ConcurrentHashMap<>();
+        try {
+            CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < items.size(); i++) {
+                        try {
+                            handler.persistRemoval(items.get(i));
+                        } catch (Exception e) {
+                            failures.put(i, e);
+                        }
+                    }
+                }
+            }, getExecutor()).whenComplete((ignored, error) -> Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    finishRemovals(items, positions, step, failures, error, result);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            //The executor wouldn't take it (it's shut down, or full), so none of them were saved; put them all back.
+            finishRemovals(items, positions, step, failures, e, result);
+        }
+        return result;
+    }
+
+    /**
+     * Back on the JavaFX Application Thread, once a batch of removals has been saved (or couldn't be): puts back
+     * whichever ones didn't work out, and lets the caller know how it went.
+     *
+     * @param step  the undo step the removals were recorded as (-1 if they weren't)
+     * @param error if not null, none of them were saved
+     */
+    private void finishRemovals(List<T> items, int[] positions, long step, Map<Integer, Exception> failures,
+                                Throwable error, CompletableFuture<List<T>> result) {
+        inFlight--;
+
+        if (error == null && failures.isEmpty()) {
+            result.complete(items);
+            return;
+        }
+
+        //Put back whichever ones didn't work out (in the order they were in, so they land where they were,
+        //allowing for the ones before them that stayed removed)
+        AddRemoveItemModel<T> model = comboBox.getItemModel();
+        Throwable firstFailure = error;
+        int stayedRemoved = 0;
+        for (int i = 0; i < items.size(); i++) {
+            if (error != null || failures.containsKey(i)) {
+                final T item = items.get(i);
+                final int index = positions[i] < 0 ? -1 : positions[i] - stayedRemoved;
+                model.withoutUndo(() -> comboBox.restoreItem(item, index));
+                if (firstFailure == null) {
+                    firstFailure = failures.get(i);
+                }
+            } else {
+                stayedRemoved++;
+            }
+        }
+        //The step doesn't describe what happened anymore, so undoing it would replay removals that were taken back.
+        //It's forgotten as a whole; the removals that did stick can't be undone.
+        model.forgetUndoStep(step);
+        comboBox.refreshPopup();
+        result.completeExceptionally(firstFailure instanceof CompletionException && firstFailure.getCause() != null
+                ? firstFailure.getCause() : firstFailure);
+    }
+
+    /**
+     * Does the work on the executor, then (back on the JavaFX Application Thread) undoes the change if the work
+     * failed, and lets the caller know how it went. If the executor turns the work away, the change is undone
+     * straight away.
+     */
+    private CompletableFuture<T> runInBackground(T item, boolean pending, Work work, Runnable rollback) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+
+        try {
+            CompletableFuture.runAsync(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work.run();
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }
+            }, getExecutor()).whenComplete((ignored, error) -> Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    finish(item, pending, error, rollback, result);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            //The executor wouldn't take it (it's shut down, or full), so the work never started; undo the change
+            //right away, same as if it had failed.
+            finish(item, pending, e, rollback, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Back on the JavaFX Application Thread, once a change has been saved (or couldn't be): it's no longer
+     * pending, and if it failed, it's undone.
+     *
+     * @param pending whether the item was marked as pending (additions are; removals aren't)
+     */
+    private void finish(T item, boolean pending, Throwable error, Runnable rollback, CompletableFuture<T> result) {
+        inFlight--;
+        if (pending) {
+            unmarkPending(item);
+        }
+
+        if (error == null) {
+            result.complete(item);
+        } else {
+            rollback.run();
+            comboBox.refreshPopup();
+            result.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+        }
+    }
+
+    private CompletableFuture<T> rejected(T item) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(new RejectedExecutionException(
+                "Too many changes are still being saved (" + inFlight + "); couldn't commit " + item));
+        return result;
+    }
+
+    /**
+     * An item that's already in the list was added again. Merging hands back the one that's already there;
+     * rejecting fails.
+     */
+    private CompletableFuture<T> duplicate(T item, T existing, DuplicatePolicy policy) {
+        if (policy == DuplicatePolicy.MERGE) {
+            return CompletableFuture.completedFuture(existing);
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.completeExceptionally(new IllegalArgumentException(
+                "Couldn't add " + item + "; it's a duplicate of " + existing + ", which is already in the list."));
+        return result;
+    }
+
+    private void markPending(T item) {
+        if (pendingCounts.merge(item, 1, Integer::sum) == 1) {
+            pendingItems.add(item);
+        }
+    }
+
+    private void unmarkPending(T item) {
+        Integer count = pendingCounts.get(item);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            pendingCounts.put(item, count - 1);
+        } else {
+            pendingCounts.remove(item);
+            pendingItems.remove(item);
+        }
+    }
+
+    ObservableSet<T> getPendingItems() {
+        return pendingItems;
+    }
+
+    ItemCommitHandler<T> getHandler() {
+        return handler;
+    }
+
+    void setHandler(ItemCommitHandler<T> handler) {
+        this.handler = handler;
+    }
+
+    Executor getExecutor() {
+        if (executor == null) {
+            return getDefaultExecutor();
+        }
+        return executor;
+    }
+
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    int getMaxPending() {
+        return maxPending;
+    }
+
+    void setMaxPending(int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("At least one change has to be allowed at a time.");
+        }
+        this.maxPending = maxPending;
+    }
+
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            defaultExecutor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "AddRemoveComboBox-commit");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * A handler call that's allowed to throw.
+     */
+    private interface Work {
+        void run() throws Exception;
+    }
+}
@@ -0,0 +1,750 @@
+package tech.ugma.customcomponents;
+
+import javafx.application.Platform;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Loads an AddRemoveComboBox's items from a CSV or JSON file, and saves them to one, without holding up the
+ * JavaFX Application Thread or holding the whole file in memory.
+ * <pre>
+ * <code>ItemFiles.load(Paths.get("carriers.csv"), comboBox)
+ *         .thenAccept(count -&gt; status.setText(count + " carriers loaded"));</code>
+ * </pre>
+ * Loading reads the file a memory-mapped chunk at a time and parses it on a background thread. Items are
+ * handed to the combo box in batches, each added with one {@link AddRemoveItemModel#updateItems(Consumer)}.
+ * The first batch is small, so the combo box is usable almost straight away; the ones after it get bigger,
+ * so a big file doesn't mean lots of trips to the JavaFX Application Thread. Only one batch is ever waiting
+ * for the JavaFX Application Thread at a time; the parsing carries on meanwhile.
+ * <p>
+ * Each batch is put in order on the background thread too (when the items are sorted alphabetically), and
+ * the sort keys made doing it are handed over along with it. That saves comparing, but not copying: adding
+ * a batch still goes through the whole list on the JavaFX Application Thread (the list is copied, the two
+ * sorted runs are merged by the sort, which finds them already in order, and the index is brought up to
+ * date), so each batch costs about as much as the list it's added to. That's why the batches grow: loading
+ * n items takes only a handful of batches until they reach their biggest, and about n / 100,000 after that,
+ * so the JavaFX Application Thread goes through the list that many times in all, not once per item. When
+ * duplicates aren't allowed, items the combo box already has (including ones from earlier in the file)
+ * aren't added. Nothing is kept from one batch to the next, so however big the file is, only a batch's worth
+ * of it is in memory at a time (along with the items themselves, of course).
+ * <p>
+ * A CSV file has one item per line, in its first column; the other columns are ignored. Any field can be
+ * quoted (RFC 4180 style, with doubled quotes inside, and commas and line breaks allowed in it). A
+ * JSON file holds an array of strings. Either way, the file is read as UTF-8.
+ * <p>
+ * Text is turned into items (when loading) and items into text (when saving) on the background thread, using
+ * the combo box's item factory and converter, so they have to be safe to call from any thread (which they
+ * nearly always are).
+ */
+@SuppressWarnings("Convert2Lambda")
+public final class ItemFiles {
+
+    /**
+     * The kinds of file items can be loaded from and saved to.
+     */
+    public enum Format {
+        CSV, JSON;
+
+        /**
+         * @return JSON for a file whose name ends in ".json"; otherwise CSV.
+         */
+        public static Format of(Path file) {
+            return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".json") ? JSON : CSV;
+        }
+    }
+
+    /**
+     * How much of the file is mapped at a time.
+     */
+    private static final int MAP_CHUNK = 16 << 20;
+
+    /**
+     * How many items go in the first batch (so the combo box has something in it quickly), and how big the
+     * batches can get after that.
+     */
+    private static final int FIRST_BATCH = 1_000;
+    private static final int MAX_BATCH = 100_000;
+
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private static final ByteBuffer NO_BYTES = ByteBuffer.allocate(0);
+
+    /**
+     * Where files are read and written. Its threads are daemons, so they won't keep the application running.
+     */
+    private static ExecutorService executor;
+
+    private ItemFiles() {
+    }
+
+    /**
+     * Loads items from a file into a combo box, working out the format from the file's name.
+     *
+     * @see #load(Path, Format, AddRemoveComboBox)
+     */
+    public static <T> CompletableFuture<Integer> load(Path file, AddRemoveComboBox<T> comboBox) {
+        return load(file, Format.of(file), comboBox);
+    }
+
+    /**
+     * Adds the items in a file to a combo box, a batch at a time. The items are made with the combo box's
+     * item factory. None of it goes into the undo history.
+     * <p>
+     * Call this on the JavaFX Application Thread. Cancelling the future stops the loading; the batches that
+     * have already been added stay added (and so do they if the file turns out to be broken partway through).
+     *
+     * @param file     the file to load
+     * @param format   what kind of file it is
+     * @param comboBox the combo box to add the items to
+     * @return completes (on the JavaFX Application Thread) with how many items were added, once they all have
+     * been; or fails, if the file couldn't be read.
+     */
+    public static <T> CompletableFuture<Integer> load(Path file, Format format, AddRemoveComboBox<T> comboBox) {
+        return load(file, format, comboBox.getItemModel(), comboBox.getItemFactory());
+    }
+
+    /**
+     * Adds the items in a file to a model, a batch at a time. See {@link #load(Path, Format, AddRemoveComboBox)}.
+     *
+     * @param file        the file to load
+     * @param format      what kind of file it is
+     * @param model       the items to add to
+     * @param itemFactory makes an item out of each piece of text in the file (null means skip it)
+     * @return completes with how many items were added
+     */
+    public static <T> CompletableFuture<Integer> load(Path file, Format format, AddRemoveItemModel<T> model,
+                                                      Function<String, T> itemFactory) {
+        if (file == null || format == null || model == null || itemFactory == null) {
+            throw new NullPointerException("The file, format, items and item factory all have to be given.");
+        }
+
+        Loader<T> loader = new Loader<>(file, format, model, itemFactory);
+        getExecutor().execute(loader);
+        return loader.result;
+    }
+
+    /**
+     * Saves a combo box's items to a file, working out the format from the file's name.
+     *
+     * @see #save(AddRemoveComboBox, Path, Format)
+     */
+    public static <T> CompletableFuture<Integer> save(AddRemoveComboBox<T> comboBox, Path file) {
+        return save(comboBox, file, Format.of(file));
+    }
+
+    /**
+     * Saves a combo box's items to a file, in order, each as the text its converter gives it.
+     * <p>
+     * Call this on the JavaFX Application Thread. The items are copied as they are right now (which is quick),
+     * and the rest happens on a background thread. The file is written under another name and then moved into
+     * place, so it's never left half written.
+     *
+     * @param comboBox the combo box whose items are to be saved
+     * @param file     where to save them
+     * @param format   what kind of file to write
+     * @return completes (on a background thread) with how many items were saved, or fails if the file couldn't
+     * be written.
+     * @throws IllegalStateException if the items are paged; saving them would mean loading every one of them.
+     */
+    public static <T> CompletableFuture<Integer> save(AddRemoveComboBox<T> comboBox, Path file, Format format) {
+        if (file == null || format == null) {
+            throw new NullPointerException("The file and format both have to be given.");
+        }
+        if (comboBox.getItemModel().isPaged()) {
+            throw new IllegalStateException("Items that come from an ItemProvider can't be saved to a file.");
+        }
+
+        final Object[] snapshot = comboBox.getItems().toArray();
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        getExecutor().execute(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                try {
+                    write(file, format, snapshot, item -> comboBox.toDisplayText((T) item));
+                    result.complete(snapshot.length);
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+    private static void write(Path file, Format format, Object[] items, Function<Object, String> textOf)
+            throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer out = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1),
+                     1 << 16)) {
+            if (format == Format.JSON) {
+                out.write('[');
+                for (int i = 0; i < items.length; i++) {
+                    out.write(i == 0 ? "\n  " : ",\n  ");
+                    writeJsonString(out, textOf.apply(items[i]));
+                }
+                out.write(items.length == 0 ? "]\n" : "\n]\n");
+            } else {
+                for (Object item : items) {
+                    writeCsvField(out, textOf.apply(item));
+                    out.write("\r\n");
+                }
+            }
+        }
+
+        try {
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void writeCsvField(Writer out, String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+
+        boolean needsQuotes = !text.isEmpty() && (Character.isWhitespace(text.charAt(0))
+                || Character.isWhitespace(text.charAt(text.length() - 1)));
+        for (int i = 0; i < text.length() && !needsQuotes; i++) {
+            char c = text.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            out.write(text);
+            return;
+        }
+
+        out.write('"');
+        out.write(text.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private static void writeJsonString(Writer out, String text) throws IOException {
+        if (text == null) {
+            out.write("null");
+            return;
+        }
+
+        out.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    //Control characters can't go in as they are (and the line separators trip up JavaScript)
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "AddRemoveComboBox-files");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Reads a file on a background thread, handing its items over a batch at a time.
+     */
+    private static final class Loader<T> implements Runnable {
+
+        private final Path file;
+        private final Format format;
+        private final AddRemoveItemModel<T> model;
+        private final Function<String, T> itemFactory;
+
+        private final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        /**
+         * The sorting rules to put each batch in order by, or null if the items aren't sorted alphabetically.
+         * Only ever copied (which doesn't change it), so the background thread can use it.
+         */
+        private final SortKeyCache<T> sortRules;
+
+        private List<T> batch = new ArrayList<>();
+        private int batchSize = FIRST_BATCH;
+
+        /**
+         * Taken while a batch is waiting for the JavaFX Application Thread.
+         */
+        private final Semaphore inFlight = new Semaphore(1);
+
+        /**
+         * How many items have been added. Only the JavaFX Application Thread touches this.
+         */
+        private int added;
+
+        Loader(Path file, Format format, AddRemoveItemModel<T> model, Function<String, T> itemFactory) {
+            this.file = file;
+            this.format = format;
+            this.model = model;
+            this.itemFactory = itemFactory;
+            this.sortRules = model.copySortRules();
+        }
+
+        @Override
+        public void run() {
+            try {
+                read(format == Format.JSON ? new JsonParser() : new CsvParser());
+                if (result.isDone()) {
+                    return;
+                }
+
+                //The last of it (even if there's nothing left, this is what completes the result)
+                inFlight.acquire();
+                publish(true);
+            } catch (IOException | RuntimeException e) {
+                Platform.runLater(() -> result.completeExceptionally(e));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.cancel(false);
+            }
+        }
+
+        /**
+         * Decodes the file, a mapped chunk at a time, and feeds it to the parser.
+         */
+        private void read(Parser parser) throws IOException {
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.allocate(1 << 16);
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long position = 0;
+                while (position < size && !result.isDone()) {
+                    long length = Math.min(MAP_CHUNK, size - position);
+                    boolean last = position + length == size;
+                    MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+                    CoderResult coded;
+                    do {
+                        coded = decoder.decode(bytes, chars, last);
+                        chars.flip();
+                        parser.feed(chars);
+                        chars.clear();
+                    } while (coded.isOverflow());
+
+                    //A character cut in half by the end of the chunk is left for the next chunk to decode
+                    position += bytes.position();
+                    if (!last && bytes.position() == 0) {
+                        throw new IOException(file + " isn't UTF-8 text.");
+                    }
+                }
+                //However the reading ended (an empty file never gets into the loop at all), the decoder has to
+                //have been told there's no more before it can be flushed.
+                decoder.decode(NO_BYTES, chars, true);
+                decoder.flush(chars);
+                chars.flip();
+                parser.feed(chars);
+            }
+            parser.finish();
+        }
+
+        /**
+         * Takes an item's text from the parser.
+         */
+        private void found(String text) {
+            if (text == null || text.isEmpty()) {
+                return;
+            }
+            T item = itemFactory.apply(text);
+            if (item == null) {
+                return;
+            }
+
+            batch.add(item);
+            if (batch.size() < batchSize) {
+                return;
+            }
+
+            //If there's nothing waiting for the JavaFX Application Thread, it can have this lot. If there is, the
+            //batch can keep growing for a while, but not forever; past the biggest a batch can be, we wait.
+            if (!inFlight.tryAcquire()) {
+                if (batch.size() < MAX_BATCH) {
+                    return;
+                }
+                inFlight.acquireUninterruptibly();
+            }
+            publish(false);
+            batchSize = Math.min(batchSize * 4, MAX_BATCH);
+        }
+
+        /**
+         * Sorts the batch (if the items are sorted), and has the JavaFX Application Thread add it. Called
+         * holding {@link #inFlight}, which is let go of once the batch has been added.
+         */
+        private void publish(boolean finished) {
+            final List<T> items = batch;
+            batch = new ArrayList<>();
+
+            //The keys made while sorting go along with the batch; this thread doesn't touch them again.
+            final SortKeyCache<T> keys = sortRules == null || items.isEmpty() ? null : sortRules.copyRules();
+            if (keys != null) {
+                items.sort(keys::compare);
+            }
+
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (!result.isDone() && !items.isEmpty()) {
+                            add(items, keys);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                    if (finished) {
+                        result.complete(added);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Adds a batch, as one change. Runs on the JavaFX Application Thread, and costs about as much as the
+         * whole list (it's copied and merged), which is why batches are as big as they are.
+         */
+        private void add(List<T> items, SortKeyCache<T> keys) {
+            if (keys != null) {
+                model.adoptSortKeys(keys);
+            }
+
+            //The model knows about the items it already has; the ones earlier in this batch aren't in it yet.
+            final Set<Object> batchKeys = model.getDuplicatePolicy() == DuplicatePolicy.ALLOW
+                    ? null : new HashSet<>();
+            final Function<? super T, ?> keyOf = model.duplicateKeyFunction();
+            model.updateItems(new Consumer<List<T>>() {
+                @Override
+                public void accept(List<T> list) {
+                    for (T item : items) {
+                        if (batchKeys == null || model.findDuplicate(item) == null && batchKeys.add(keyOf.apply(item))) {
+                            list.add(item);
+                            added++;
+                        }
+                    }
+                }
+            }, false);
+        }
+
+        /**
+         * Turns characters into items' text, whatever's fed to it, however it's split up.
+         */
+        private abstract class Parser {
+            abstract void feed(CharBuffer chars) throws IOException;
+
+            abstract void finish() throws IOException;
+        }
+
+        /**
+         * Reads the first column of each line of CSV (RFC 4180: fields can be quoted, with doubled quotes
+         * inside, and quoted fields can have commas and line breaks in them).
+         */
+        private final class CsvParser extends Parser {
+
+            private final StringBuilder field = new StringBuilder();
+
+            /**
+             * Which field of the line we're in. Only the first one's kept.
+             */
+            private int fieldIndex;
+
+            private boolean quoted;
+
+            /**
+             * Whether nothing of the current field has been read yet, so that a quote opens a quoted field.
+             * (The text that's kept can't tell us that; only the first field's is kept.)
+             */
+            private boolean atFieldStart = true;
+
+            /**
+             * Whether the last character was a quote inside a quoted field: either the first of a doubled
+             * quote, or the end of the field.
+             */
+            private boolean quotePending;
+
+            private boolean started;
+
+            @Override
+            void feed(CharBuffer chars) {
+                while (chars.hasRemaining()) {
+                    char c = chars.get();
+                    if (!started) {
+                        started = true;
+                        if (c == BYTE_ORDER_MARK) {
+                            //A byte order mark; not part of the first item
+                            continue;
+                        }
+                    }
+
+                    if (quoted) {
+                        if (quotePending) {
+                            quotePending = false;
+                            if (c == '"') {
+                                keep('"');
+                                continue;
+                            }
+                            quoted = false;
+                            //That was the closing quote, so this character is outside the quotes.
+                        } else if (c == '"') {
+                            quotePending = true;
+                            continue;
+                        } else {
+                            keep(c);
+                            continue;
+                        }
+                    }
+
+                    if (c == '"' && atFieldStart) {
+                        quoted = true;
+                        atFieldStart = false;
+                    } else if (c == ',') {
+                        fieldIndex++;
+                        atFieldStart = true;
+                    } else if (c == '\n' || c == '\r') {
+                        endLine();
+                    } else {
+                        keep(c);
+                        atFieldStart = false;
+                    }
+                }
+            }
+
+            private void keep(char c) {
+                if (fieldIndex == 0) {
+                    field.append(c);
+                }
+            }
+
+            private void endLine() {
+                //(A \r\n ends a line and then an empty one; empty ones don't add anything.)
+                found(field.toString());
+                field.setLength(0);
+                fieldIndex = 0;
+                atFieldStart = true;
+            }
+
+            @Override
+            void finish() {
+                endLine();
+            }
+        }
+
+        /**
+         * Reads a JSON array of strings. Numbers and true/false are taken as their text; nulls are skipped.
+         */
+        private final class JsonParser extends Parser {
+
+            private static final int BEFORE_ARRAY = 0;
+            private static final int BEFORE_VALUE = 1;
+            private static final int IN_STRING = 2;
+            private static final int IN_ESCAPE = 3;
+            private static final int IN_UNICODE_ESCAPE = 4;
+            private static final int IN_LITERAL = 5;
+            private static final int AFTER_VALUE = 6;
+            private static final int AFTER_ARRAY = 7;
+
+            private int state = BEFORE_ARRAY;
+
+            private final StringBuilder text = new StringBuilder();
+
+            /**
+             * The hex digits of a \\u escape, and how many there have been.
+             */
+            private int unicode;
+            private int unicodeDigits;
+
+            @Override
+            void feed(CharBuffer chars) throws IOException {
+                while (chars.hasRemaining()) {
+                    char c = chars.get();
+                    switch (state) {
+                        case BEFORE_ARRAY:
+                            if (c == '[') {
+                                state = BEFORE_VALUE;
+                            } else if (!isWhitespace(c) && c != BYTE_ORDER_MARK) {
+                                throw malformed("should start with [");
+                            }
+                            break;
+
+                        case BEFORE_VALUE:
+                            if (c == '"') {
+                                state = IN_STRING;
+                            } else if (c == ']') {
+                                state = AFTER_ARRAY;
+                            } else if (c == '{' || c == '[') {
+                                throw malformed("can only have strings in it");
+                            } else if (!isWhitespace(c)) {
+                                text.append(c);
+                                state = IN_LITERAL;
+                            }
+                            break;
+
+                        case IN_STRING:
+                            if (c == '"') {
+                                value(false);
+                            } else if (c == '\\') {
+                                state = IN_ESCAPE;
+                            } else {
+                                text.append(c);
+                            }
+                            break;
+
+                        case IN_ESCAPE:
+                            state = IN_STRING;
+                            switch (c) {
+                                case 'n':
+                                    text.append('\n');
+                                    break;
+                                case 'r':
+                                    text.append('\r');
+                                    break;
+                                case 't':
+                                    text.append('\t');
+                                    break;
+                                case 'b':
+                                    text.append('\b');
+                                    break;
+                                case 'f':
+                                    text.append('\f');
+                                    break;
+                                case 'u':
+                                    unicode = 0;
+                                    unicodeDigits = 0;
+                                    state = IN_UNICODE_ESCAPE;
+                                    break;
+                                default:
+                                    //\", \\ and \/ are just the character itself
+                                    text.append(c);
+                            }
+                            break;
+
+                        case IN_UNICODE_ESCAPE:
+                            int digit = Character.digit(c, 16);
+                            if (digit < 0) {
+                                throw malformed("has a broken \\u escape in it");
+                            }
+                            unicode = unicode * 16 + digit;
+                            if (++unicodeDigits == 4) {
+                                text.append((char) unicode);
+                                state = IN_STRING;
+                            }
+                            break;
+
+                        case IN_LITERAL:
+                            if (c == ',' || c == ']' || isWhitespace(c)) {
+                                value(true);
+                                afterValue(c);
+                            } else {
+                                text.append(c);
+                            }
+                            break;
+
+                        case AFTER_VALUE:
+                            afterValue(c);
+                            break;
+
+                        case AFTER_ARRAY:
+                        default:
+                            if (!isWhitespace(c)) {
+                                throw malformed("has something after the end of the array");
+                            }
+                    }
+                }
+            }
+
+            /**
+             * A string, number, true, false or null has ended.
+             */
+            private void value(boolean literal) {
+                String value = text.toString();
+                text.setLength(0);
+                state = AFTER_VALUE;
+                if (!literal || !value.equals("null")) {
+                    found(value);
+                }
+            }
+
+            private void afterValue(char c) throws IOException {
+                if (c == ',') {
+                    state = BEFORE_VALUE;
+                } else if (c == ']') {
+                    state = AFTER_ARRAY;
+                } else if (!isWhitespace(c)) {
+                    throw malformed("is missing a comma");
+                }
+            }
+
+            private boolean isWhitespace(char c) {
+                return c == ' ' || c == '\n' || c == '\r' || c == '\t';
+            }
+
+            private IOException malformed(String problem) {
+                return new IOException("The array in " + file + " " + problem + ".");
+            }
+
+            @Override
+            void finish() throws IOException {
+                if (state != AFTER_ARRAY) {
+                    throw malformed("never ends");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package tech.ugma.customcomponents;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.WeakInvalidationListener;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.WeakListChangeListener;
+import javafx.event.ActionEvent;
+import javafx.event.EventHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Narrows an AddRemoveComboBox's items down to the ones matching what's been typed into its filter.
+ * <p>
+ * Nothing is looked up while the user's still typing; the lookup waits until they've paused for the
+ * combo box's filter delay. It then runs in the background (using the model's {@link PrefixIndex}), so
+ * the JavaFX Application Thread only ever has to copy the list and hand over the results. Typing again
+ * cancels a lookup that's still running.
+ * <p>
+ * The matches are kept in the same order as the items. They're looked up again whenever the items change.
+ *
+ * @param <T> the type of the items
+ */
+@SuppressWarnings("Convert2Lambda")
+class ItemFilter<T> {
+
+    private final AddRemoveComboBox<T> comboBox;
+
+    /**
+     * The matching items, in order.
+     */
+    private final ObservableList<T> results = FXCollections.observableArrayList();
+
+    /**
+     * Waits for the user to stop typing.
+     */
+    private final PauseTransition debounce = new PauseTransition();
+
+    /**
+     * Whether there's anything typed to filter by (so that the results, rather than all of the items,
+     * are what should be shown).
+     */
+    private final ReadOnlyBooleanWrapper filtering = new ReadOnlyBooleanWrapper(this, "filtering", false);
+
+    private String text = "";
+
+    /**
+     * Which lookup is the latest. A lookup that isn't the latest anymore gives up (or has its results thrown
+     * away).
+     */
+    private volatile long generation;
+
+    private Future<?> running;
+
+    /**
+     * Runs the lookup again when the items change (or the index is done being rebuilt).
+     */
+    private final ListChangeListener<T> onItemsChanged = new ListChangeListener<T>() {
+        @Override
+        public void onChanged(Change<? extends T> c) {
+            refresh();
+        }
+    };
+
+    private final InvalidationListener onRebuilt = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            refresh();
+        }
+    };
+
+    /**
+     * What's actually registered with the (possibly shared) model and its index. They're weak, so a combo box
+     * that's thrown away without being disposed of isn't kept around by the model it was showing.
+     */
+    private final WeakListChangeListener<T> weakOnItemsChanged = new WeakListChangeListener<>(onItemsChanged);
+    private final WeakInvalidationListener weakOnRebuilt = new WeakInvalidationListener(onRebuilt);
+
+    private PrefixIndex<T> index;
+
+    /**
+     * The items being listened to, so that it's the same list that stops being listened to.
+     */
+    private ObservableList<T> listenedItems;
+
+    ItemFilter(AddRemoveComboBox<T> comboBox) {
+        this.comboBox = comboBox;
+
+        debounce.setOnFinished(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent event) {
+                lookUp();
+            }
+        });
+    }
+
+    /**
+     * Filters by new text. An empty filter shows everything again, straight away.
+     */
+    void setText(String text) {
+        this.text = text == null ? "" : text;
+
+        if (PrefixIndex.normalize(this.text).isEmpty()) {
+            stop();
+            results.clear();
+            filtering.set(false);
+            return;
+        }
+
+        //Start listening the first time there's something to filter by
+        if (index == null) {
+            index = comboBox.getItemModel().getPrefixIndex();
+            index.rebuildingProperty().addListener(weakOnRebuilt);
+            listenedItems = comboBox.getItemModel().getItems();
+            listenedItems.addListener(weakOnItemsChanged);
+        }
+
+        filtering.set(true);
+        debounce.setDuration(comboBox.getFilterDelay());
+        debounce.playFromStart();
+    }
+
+    /**
+     * Looks up the current text again (after the usual delay), if there is any.
+     */
+    private void refresh() {
+        if (filtering.get()) {
+            debounce.playFromStart();
+        }
+    }
+
+    /**
+     * Starts the lookup in the background, cancelling the last one if it's still going.
+     */
+    private void lookUp() {
+        stop();
+
+        final long thisGeneration = ++generation;
+        final String query = text;
+        final PrefixIndex<T> index = this.index;
+
+        //A copy, so the results can be put in order in the background. (Copying the list is a lot quicker
+        //than anything else we could do with it on the JavaFX Application Thread.)
+        final Object[] snapshot = comboBox.getItemModel().getItems().toArray();
+
+        running = PrefixIndex.getExecutor().submit(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                BooleanSupplier cancelled = () -> thisGeneration != generation || Thread.currentThread().isInterrupted();
+
+                Set<T> found = index.find(query, cancelled);
+                if (found == null) {
+                    return;
+                }
+
+                List<T> matches = new ArrayList<>(Math.min(found.size(), snapshot.length));
+                if (!found.isEmpty()) {
+                    for (int i = 0; i < snapshot.length; i++) {
+                        if ((i & 1023) == 0 && cancelled.getAsBoolean()) {
+                            return;
+                        }
+                        if (found.contains(snapshot[i])) {
+                            matches.add((T) snapshot[i]);
+                        }
+                    }
+                }
+
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (thisGeneration == generation && filtering.get()) {
+                            results.setAll(matches);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops waiting to look up, and cancels a lookup that's running.
+     */
+    private void stop() {
+        debounce.stop();
+        generation++;
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+    }
+
+    ObservableList<T> getResults() {
+        return results;
+    }
+
+    ReadOnlyBooleanProperty filteringProperty() {
+        return filtering.getReadOnlyProperty();
+    }
+
+    boolean isFiltering() {
+        return filtering.get();
+    }
+
+    /**
+     * Stops filtering and stops listening to the items.
+     */
+    void dispose() {
+        stop();
+        if (index != null) {
+            index.rebuildingProperty().removeListener(weakOnRebuilt);
+            listenedItems.removeListener(weakOnItemsChanged);
+            index = null;
+            listenedItems = null;
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package tech.ugma.customcomponents;
+
+import javafx.collections.ListChangeListener;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * Keeps track of which items are in the list, and where, so that finding one doesn't mean searching the
+ * whole list for it.
+ * <p>
+ * Every item is counted, so checking whether an item is in the list is a single hash lookup. Items'
+ * positions are remembered too, but an addition or removal moves everything after it, so rather than
+ * fixing every position after every change, we only remember how far into the list the positions are
+ * still right. Looking up an item past that point carries on from there, remembering positions as it goes,
+ * and stops as soon as it finds the item.
+ * <p>
+ * So positions are worked out lazily, and their cost is only amortized over the lookups made between
+ * changes: any addition or removal throws away every position after it, and the next lookup past it walks
+ * the list from there again. A list that's changed near the front before every lookup gets searched from
+ * there every time. (The model doesn't lean on this for sorted lists; it finds an item's spot by binary
+ * search, and only asks the index when that doesn't settle it.)
+ * <p>
+ * When duplicates aren't allowed, each item's duplicate key is counted as well, so a duplicate can be
+ * spotted (and the item it duplicates found) without a search.
+ * <p>
+ * The index is told about every change to the list by the {@link AddRemoveItemModel} that owns it, including
+ * the ones made while keeping the list in order.
+ *
+ * @param <T> the type of the items
+ */
+class ItemIndex<T> implements ListChangeListener<T> {
+
+    private final List<T> items;
+
+    /**
+     * How many times each item is in the list.
+     */
+    private final Map<T, Integer> counts = new HashMap<>();
+
+    /**
+     * Where each item (first) is in the list. Only positions below {@link #validUpTo} can be trusted.
+     */
+    private final Map<T, Integer> positions = new HashMap<>();
+
+    private int validUpTo;
+
+    /**
+     * Turns an item into its duplicate key; null when duplicates aren't being looked for.
+     */
+    private Function<? super T, ?> keyOf;
+
+    /**
+     * Every duplicate key in use, with how many items have it and one of those items.
+     */
+    private final Map<Object, KeyEntry<T>> keys = new HashMap<>();
+
+    ItemIndex(List<T> items) {
+        this.items = items;
+        for (T item : items) {
+            count(item, 1);
+        }
+    }
+
+    /**
+     * Starts over, from whatever's in the list right now.
+     */
+    void rebuild() {
+        counts.clear();
+        positions.clear();
+        validUpTo = 0;
+        for (T item : items) {
+            counts.merge(item, 1, Integer::sum);
+        }
+        refreshKeys();
+    }
+
+    @Override
+    public void onChanged(Change<? extends T> c) {
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                forgetPositionsFrom(c.getFrom());
+            } else if (!c.wasUpdated()) {
+                for (T removed : c.getRemoved()) {
+                    count(removed, -1);
+                }
+                for (T added : c.getAddedSubList()) {
+                    count(added, 1);
+                }
+                forgetPositionsFrom(c.getFrom());
+            }
+        }
+    }
+
+    private void count(T item, int change) {
+        int count = counts.getOrDefault(item, 0) + change;
+        if (count > 0) {
+            counts.put(item, count);
+        } else {
+            counts.remove(item);
+            positions.remove(item);
+        }
+
+        if (keyOf != null) {
+            Object key = keyOf.apply(item);
+            KeyEntry<T> entry = keys.get(key);
+            if (entry == null) {
+                //Removing something with a key we've never seen leaves nothing to count down
+                if (change > 0) {
+                    keys.put(key, new KeyEntry<>(item));
+                }
+            } else if ((entry.count += change) <= 0) {
+                keys.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Items from here on might have moved, so their positions can't be trusted anymore. They aren't fixed
+     * now; they're worked out again, a lookup at a time, when they're next needed.
+     */
+    void forgetPositionsFrom(int index) {
+        validUpTo = Math.min(validUpTo, index);
+    }
+
+    /**
+     * An item was taken out of one spot and put back in at another. Only the items in between have moved
+     * (by one), so only their positions are fixed, rather than forgetting every position from there on.
+     */
+    void moved(int from, int to) {
+        int last = Math.min(Math.max(from, to), validUpTo - 1);
+        for (int i = Math.min(from, to); i <= last; i++) {
+            remember(i);
+        }
+    }
+
+    /**
+     * Remembers the position of the item at the given index, unless it's already known to be (first) somewhere
+     * before that.
+     */
+    private void remember(int index) {
+        T current = items.get(index);
+        Integer known = positions.get(current);
+        if (known == null || known >= index || !Objects.equals(items.get(known), current)) {
+            positions.put(current, index);
+        }
+    }
+
+    boolean contains(Object item) {
+        return counts.containsKey(item);
+    }
+
+    /**
+     * @return how many times the item is in the list.
+     */
+    int count(Object item) {
+        return counts.getOrDefault(item, 0);
+    }
+
+    /**
+     * Costs a hash lookup if the item's position is still known. Otherwise it walks the list from the
+     * first position that isn't, which after a change near the front is most of the list.
+     *
+     * @return where the item (first) is in the list, or -1 if it isn't.
+     */
+    int indexOf(Object item) {
+        if (!counts.containsKey(item)) {
+            return -1;
+        }
+
+        //A position left over from before the list changed can end up below validUpTo without having been
+        //looked at again, so make sure the item's really there.
+        Integer position = positions.get(item);
+        if (position != null && position < validUpTo && Objects.equals(items.get(position), item)) {
+            return position;
+        }
+
+        //Pick up where we left off, remembering everyone's position along the way
+        for (int i = validUpTo; i < items.size(); i++) {
+            remember(i);
+            validUpTo = i + 1;
+
+            if (Objects.equals(items.get(i), item)) {
+                return positions.get(item);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Starts (or stops) keeping track of duplicate keys.
+     *
+     * @param keyOf turns an item into its duplicate key; null to stop
+     */
+    void setKeyOf(Function<? super T, ?> keyOf) {
+        this.keyOf = keyOf;
+        keys.clear();
+        if (keyOf != null) {
+            for (T item : items) {
+                Object key = keyOf.apply(item);
+                KeyEntry<T> entry = keys.get(key);
+                if (entry == null) {
+                    keys.put(key, new KeyEntry<>(item));
+                } else {
+                    entry.count++;
+                }
+            }
+        }
+    }
+
+    /**
+     * The way duplicate keys are made has changed (the converter did, say), so they're all made again.
+     */
+    void refreshKeys() {
+        setKeyOf(keyOf);
+    }
+
+    /**
+     * @return an item in the list with the same duplicate key as the given one, or null if there isn't one
+     * (or duplicate keys aren't being kept track of).
+     */
+    T findByKey(T item) {
+        if (keyOf == null) {
+            return null;
+        }
+
+        Object key = keyOf.apply(item);
+        KeyEntry<T> entry = keys.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        //The item we remembered might have been removed since, while others with the same key are still
+        //there. It doesn't happen often, so just go and find one of the others.
+        if (!counts.containsKey(entry.item)) {
+            for (T candidate : items) {
+                if (Objects.equals(keyOf.apply(candidate), key)) {
+                    entry.item = candidate;
+                    break;
+                }
+            }
+        }
+        return entry.item;
+    }
+
+    /**
+     * How many items have a particular duplicate key, and one of them.
+     */
+    private static final class KeyEntry<T> {
+        T item;
+        int count = 1;
+
+        KeyEntry(T item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package tech.ugma.customcomponents;
+
+import javafx.application.Platform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lets any thread add and remove an AddRemoveComboBox's items.
+ * <p>
+ * Changes go into a lock-free queue. The first change into an empty queue asks the JavaFX Application
+ * Thread to drain it, and only that once: however many changes pile up in the meantime, there's just the
+ * one {@code Platform.runLater}. The drain takes up to a batch's worth of changes and makes them. If there's
+ * still more waiting, it goes to the back of the event queue to do the next batch, so the UI keeps responding
+ * to everything else in between. (None of it goes into the undo history; it isn't the user's doing.)
+ * <p>
+ * Each batch is made with {@link AddRemoveItemModel#applyChanges(List)}, so it costs about as much as the
+ * batch, not the list, unless the batch is big enough that it's quicker to go through the whole list once.
+ * <p>
+ * The queue only holds so many changes. When it's full, the {@link IngestionOverflowPolicy} decides
+ * whether the producer waits, or which change gets thrown away.
+ *
+ * @param <T> the type of the items
+ */
+@SuppressWarnings("Convert2Lambda")
+class ItemIngestionQueue<T> {
+
+    /**
+     * How many changes can be waiting at once, unless you say otherwise.
+     */
+    static final int DEFAULT_CAPACITY = 10_000;
+
+    /**
+     * How many changes are made per trip to the JavaFX Application Thread, unless you say otherwise.
+     */
+    static final int DEFAULT_BATCH_SIZE = 500;
+
+    private final AddRemoveItemModel<T> model;
+
+    private final ConcurrentLinkedQueue<ItemChange<T>> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * How many spots in the queue are taken. (A ConcurrentLinkedQueue has to walk itself to count.)
+     */
+    private final AtomicInteger taken = new AtomicInteger();
+
+    private volatile int capacity = DEFAULT_CAPACITY;
+
+    /**
+     * Producers waiting for room (with the BLOCK policy) wait on this. Only they ever take it, and the
+     * drain only touches it when someone's waiting, so it's no cost the rest of the time.
+     */
+    private final Object roomLock = new Object();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+
+    private volatile IngestionOverflowPolicy overflowPolicy = IngestionOverflowPolicy.BLOCK;
+
+    /**
+     * Whether a drain has been asked for and hasn't finished yet. While it's set, the drain is the only one
+     * that schedules another, so there's only ever one chain of them.
+     */
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainBatch();
+        }
+    };
+
+    ItemIngestionQueue(AddRemoveItemModel<T> model) {
+        this.model = model;
+    }
+
+    /**
+     * Queues up a change, from any thread.
+     *
+     * @return false if the change was thrown away (or the thread was interrupted while waiting for room)
+     */
+    boolean offer(T item, boolean addition) {
+        if (!makeRoom()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        queue.add(new ItemChange<>(item, addition));
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Takes a spot in the queue, if (according to the overflow policy) we can.
+     */
+    private boolean makeRoom() {
+        if (tryTakeSpot()) {
+            return true;
+        }
+
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                return false;
+
+            case DROP_OLDEST:
+                while (!tryTakeSpot()) {
+                    //Throw away the oldest change, and take its spot
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                        freeSpots(1);
+                    } else {
+                        //Another producer has the spot but hasn't put its change in yet
+                        Thread.yield();
+                    }
+                }
+                return true;
+
+            case BLOCK:
+            default:
+                if (Platform.isFxApplicationThread()) {
+                    //Waiting here would mean waiting forever, since this is the thread that empties the queue.
+                    //Make room by doing the work now instead. (Just the work: whatever's left is up to the drain
+                    //that's already scheduled, or the one offer() schedules, never a second chain of them.)
+                    while (!tryTakeSpot()) {
+                        applyBatch();
+                        Thread.yield();
+                    }
+                    return true;
+                }
+                return waitForSpot();
+        }
+    }
+
+    private boolean tryTakeSpot() {
+        while (true) {
+            int current = taken.get();
+            if (current >= capacity) {
+                return false;
+            }
+            if (taken.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean waitForSpot() {
+        //Say we're waiting *before* checking for room, so a drain that frees some up is sure to wake us.
+        waiting.incrementAndGet();
+        try {
+            synchronized (roomLock) {
+                while (!tryTakeSpot()) {
+                    roomLock.wait(100);
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private void freeSpots(int count) {
+        taken.addAndGet(-count);
+        if (waiting.get() > 0) {
+            synchronized (roomLock) {
+                roomLock.notifyAll();
+            }
+        }
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(drain);
+        }
+    }
+
+    /**
+     * Makes up to a batch's worth of the waiting changes, all at once, and schedules the next batch if there's
+     * more. Runs on the JavaFX Application Thread, as the scheduled drain.
+     */
+    private void drainBatch() {
+        applyBatch();
+
+        if (!queue.isEmpty()) {
+            //More came in (or there was more than one batch); let everything else have a turn first.
+            Platform.runLater(drain);
+            return;
+        }
+
+        drainScheduled.set(false);
+        //Something might have been queued after we looked, while drainScheduled was still set.
+        if (!queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    /**
+     * Makes up to a batch's worth of the waiting changes, all at once, and nothing else. Runs on the JavaFX
+     * Application Thread.
+     */
+    private void applyBatch() {
+        List<ItemChange<T>> batch = new ArrayList<>(Math.min(batchSize, Math.max(taken.get(), 1)));
+        ItemChange<T> ingestion;
+        while (batch.size() < batchSize && (ingestion = queue.poll()) != null) {
+            batch.add(ingestion);
+        }
+        freeSpots(batch.size());
+
+        if (!batch.isEmpty()) {
+            model.applyChanges(batch);
+        }
+    }
+
+    /**
+     * @return how many changes are waiting to be made.
+     */
+    int size() {
+        return taken.get();
+    }
+
+    long getDropped() {
+        return dropped.get();
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    void setCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("The ingestion queue has to be able to hold at least one change.");
+        }
+        this.capacity = capacity;
+        //If there's more room now, anyone waiting can stop
+        freeSpots(0);
+    }
+
+    int getBatchSize() {
+        return batchSize;
+    }
+
+    void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batches have to have at least one change in them.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    IngestionOverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    void setOverflowPolicy(IngestionOverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy == null ? IngestionOverflowPolicy.BLOCK : overflowPolicy;
+    }
+}
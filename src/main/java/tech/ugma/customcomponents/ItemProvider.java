@@ -0,0 +1,58 @@
+package tech.ugma.customcomponents;
+
+import java.util.List;
+
+/**
+ * Where an AddRemoveComboBox gets its items from when there are far too many to keep in memory
+ * (a database table, say).
+ * <p>
+ * Instead of handing the combo box every item up front, the combo box asks for items a page at a time,
+ * and only for the pages its popup is actually showing. (See {@link PagedItemList}.)
+ * <p>
+ * The provider is in charge of the order of the items, so the combo box doesn't sort them. Additions and
+ * removals made through the combo box are handed straight to the provider.
+ * <p>
+ * All of these are called on the JavaFX Application Thread, so they should be quick.
+ *
+ * @param <T> the type of the items
+ */
+public interface ItemProvider<T> {
+
+    /**
+     * @return how many items there are in all.
+     */
+    int size();
+
+    /**
+     * Loads a page of items.
+     *
+     * @param from  the index of the first item wanted
+     * @param count how many items are wanted (fewer may come back, at the end of the list)
+     * @return the items from {@code from} up to (not including) {@code from + count}
+     */
+    List<T> load(int from, int count);
+
+    /**
+     * Finds an item without anybody having to look through every page.
+     *
+     * @param item the item to look for
+     * @return the item's index, or -1 if it isn't there
+     */
+    int indexOf(T item);
+
+    /**
+     * Adds an item, wherever it belongs.
+     *
+     * @param item the item to add
+     * @return the index the item was added at, or -1 if it wasn't added
+     */
+    int add(T item);
+
+    /**
+     * Removes an item.
+     *
+     * @param item the item to remove
+     * @return the index the item was removed from, or -1 if it wasn't there
+     */
+    int remove(T item);
+}
@@ -0,0 +1,585 @@
+package tech.ugma.customcomponents;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.util.StringConverter;
+import javafx.util.converter.DefaultStringConverter;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Saves an AddRemoveComboBox's items to disk as they change, without rewriting the whole list every time.
+ * <p>
+ * Every addition and removal is appended to a journal file (which is memory-mapped, so an append is just a
+ * few bytes copied into memory). Every so often, once the journal has grown big enough, the whole list is
+ * written out as a snapshot on a background thread and the old journal is thrown away. Loading the items is
+ * then a matter of reading the latest snapshot and replaying whatever's been journaled since, so it never
+ * takes longer because of how many edits were made in the past.
+ * <p>
+ * Items are stored as text, using a StringConverter.
+ * <pre>
+ * <code>JournalItemStore&lt;String&gt; store = JournalItemStore.open(directory, "carriers");
+ * store.bind(comboBox);
+ * ...
+ * store.close();</code>
+ * </pre>
+ * The files are named after the store: {@code carriers.snapshot.N} and {@code carriers.journal.N}, where N is
+ * a generation number. A snapshot covers every journal up to and including its own generation.
+ *
+ * @param <T> the type of the items
+ */
+public class JournalItemStore<T> implements Closeable {
+
+    /**
+     * Once the journal is this big (in bytes), it gets folded into a new snapshot, unless you say otherwise.
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD = 4L << 20;
+
+    /**
+     * Starts every snapshot file, so we don't try to read something that isn't one.
+     */
+    private static final int SNAPSHOT_MAGIC = 0x41525331;
+
+    /**
+     * Journal record types. A zero means there's nothing more in the journal.
+     */
+    private static final byte END = 0;
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * How much of the journal is mapped at a time; when it's used up, the next chunk is mapped.
+     */
+    private static final int MAP_CHUNK = 1 << 20;
+
+    /**
+     * Writes snapshots, one at a time, in the background. Its thread is a daemon, so it won't keep the
+     * application running.
+     */
+    private static ExecutorService compactor;
+
+    private final Path directory;
+
+    private final String name;
+
+    private final StringConverter<T> converter;
+
+    /**
+     * The items as they were when the store was opened.
+     */
+    private final List<T> loadedItems;
+
+    /**
+     * Whether so much had been journaled since the last snapshot that a new one should be made straight away.
+     */
+    private boolean needsCompaction;
+
+    private long compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+
+    /**
+     * The generation of the journal being written to.
+     */
+    private long generation;
+
+    private FileChannel journalChannel;
+
+    /**
+     * The mapped part of the journal, and where in the file it starts.
+     */
+    private MappedByteBuffer journalBuffer;
+    private long journalBufferStart;
+
+    /**
+     * How many bytes have been written to the current journal.
+     */
+    private long journalLength;
+
+    private final AtomicBoolean compacting = new AtomicBoolean();
+
+    /**
+     * The items being journaled, once the store is bound to a combo box.
+     */
+    private ObservableList<T> boundItems;
+
+    private AddRemoveItemModel<T> boundModel;
+
+    /**
+     * Writes every change to the bound items to the journal. It's told about each change by the model, before
+     * anything's moved to keep the items in order; a plain listener on the items could hear about those moves
+     * first, and then find other items where the change's added ones were.
+     */
+    private final ListChangeListener<T> journalListener = new ListChangeListener<T>() {
+        @Override
+        public void onChanged(Change<? extends T> c) {
+            try {
+                while (c.next()) {
+                    if (c.wasPermutated() || c.wasUpdated()) {
+                        //The order is the combo box's business, and is worked out again when the items are loaded.
+                        continue;
+                    }
+
+                    if (c.wasReplaced()) {
+                        //Something like setAll; only write down what actually changed.
+                        journalDifference(c.getRemoved(), c.getAddedSubList());
+                    } else {
+                        for (T removed : c.getRemoved()) {
+                            append(REMOVE, converter.toString(removed));
+                        }
+                        for (T added : c.getAddedSubList()) {
+                            append(ADD, converter.toString(added));
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (journalLength > compactionThreshold) {
+                compact();
+            }
+        }
+    };
+
+    private JournalItemStore(Path directory, String name, StringConverter<T> converter) throws IOException {
+        this.directory = directory;
+        this.name = name;
+        this.converter = converter;
+
+        Files.createDirectories(directory);
+        this.loadedItems = load();
+    }
+
+    /**
+     * Opens (or creates) a store of Strings.
+     *
+     * @param directory where the store's files are kept
+     * @param name      what the store's files are named after
+     * @return the store, with its items already loaded
+     * @throws IOException if the files couldn't be read
+     */
+    public static JournalItemStore<String> open(Path directory, String name) throws IOException {
+        return open(directory, name, new DefaultStringConverter());
+    }
+
+    /**
+     * Opens (or creates) a store.
+     *
+     * @param directory where the store's files are kept
+     * @param name      what the store's files are named after
+     * @param converter turns items into text to be stored, and back again
+     * @param <T>       the type of the items
+     * @return the store, with its items already loaded
+     * @throws IOException if the files couldn't be read
+     */
+    public static <T> JournalItemStore<T> open(Path directory, String name, StringConverter<T> converter)
+            throws IOException {
+        return new JournalItemStore<>(directory, name, converter);
+    }
+
+    /**
+     * @return the items as they were when the store was opened.
+     */
+    public List<T> getLoadedItems() {
+        return loadedItems;
+    }
+
+    /**
+     * Replaces the combo box's items with the stored ones (as one batch), and from then on journals every
+     * change made to them.
+     * <p>
+     * Call this on the JavaFX Application Thread.
+     *
+     * @param comboBox the combo box whose items are to be stored
+     */
+    public void bind(AddRemoveComboBox<T> comboBox) {
+        if (boundItems != null) {
+            throw new IllegalStateException("This store is already bound to a combo box.");
+        }
+
+        //Loading isn't something the user did, so it can't be undone
+        comboBox.getItemModel().updateItems(items -> {
+            items.clear();
+            items.addAll(loadedItems);
+        }, false);
+
+        boundModel = comboBox.getItemModel();
+        boundItems = boundModel.getItems();
+        boundModel.watchChanges(journalListener);
+
+        if (needsCompaction) {
+            compact();
+        }
+    }
+
+    /**
+     * Folds everything journaled so far into a new snapshot. The snapshot is written on a background thread;
+     * meanwhile, changes go into a fresh journal. (This happens on its own once the journal gets big enough.)
+     * <p>
+     * Call this on the JavaFX Application Thread.
+     */
+    public void compact() {
+        if (boundItems == null || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        //What goes in the snapshot has to be copied now, while we're on the FX thread.
+        List<String> texts = new ArrayList<>(boundItems.size());
+        for (T item : boundItems) {
+            texts.add(converter.toString(item));
+        }
+
+        //The snapshot will cover everything up to this journal; changes after this go in the next one.
+        final long covered = generation;
+        try {
+            closeJournal();
+            generation++;
+            openJournal(generation);
+        } catch (IOException e) {
+            compacting.set(false);
+            throw new UncheckedIOException(e);
+        }
+
+        getCompactor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(texts, covered);
+                    deleteFilesCoveredBy(covered);
+                } catch (IOException e) {
+                    //The old snapshot and journals are still there, so nothing's lost.
+                    throw new UncheckedIOException(e);
+                } finally {
+                    compacting.set(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return how big the journal (in bytes) can get before it's folded into a new snapshot.
+     */
+    public long getCompactionThreshold() {
+        return compactionThreshold;
+    }
+
+    public void setCompactionThreshold(long compactionThreshold) {
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Stops journaling and closes the journal. (A snapshot that's being written in the background will
+     * still be finished.)
+     */
+    @Override
+    public void close() throws IOException {
+        if (boundModel != null) {
+            boundModel.unwatchChanges(journalListener);
+        }
+        closeJournal();
+    }
+
+    /**
+     * Reads the latest snapshot, replays the journals written since, and starts a new journal.
+     */
+    private List<T> load() throws IOException {
+        TreeMap<Long, Path> snapshots = findFiles(".snapshot.");
+        TreeMap<Long, Path> journals = findFiles(".journal.");
+
+        ReplayedTexts texts = new ReplayedTexts();
+        long covered = -1;
+        if (!snapshots.isEmpty()) {
+            covered = snapshots.lastKey();
+            readSnapshot(snapshots.lastEntry().getValue(), texts);
+        }
+
+        long replayed = 0;
+        for (Path journal : journals.tailMap(covered, false).values()) {
+            replayed += replay(journal, texts);
+        }
+        needsCompaction = replayed > compactionThreshold;
+
+        //Anything the latest snapshot covers is just left over from before.
+        deleteFilesCoveredBy(covered);
+
+        generation = Math.max(covered, journals.isEmpty() ? -1 : journals.lastKey()) + 1;
+        openJournal(generation);
+
+        List<T> items = new ArrayList<>(texts.size());
+        for (String text : texts.inOrder()) {
+            items.add(converter.fromString(text));
+        }
+        return items;
+    }
+
+    private void readSnapshot(Path snapshot, ReplayedTexts texts) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 16 || buffer.getInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(snapshot + " isn't a snapshot.");
+            }
+
+            buffer.getLong();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                texts.add(new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    /**
+     * Applies a journal's records to the items.
+     *
+     * @return how many bytes of records there were
+     */
+    private long replay(Path journal, ReplayedTexts texts) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            while (buffer.remaining() >= 5) {
+                int start = buffer.position();
+                byte op = buffer.get();
+                int length = buffer.getInt();
+                if (op == END || length < 0 || length > buffer.remaining()) {
+                    //That's the end (or a record that never got finished)
+                    return start;
+                }
+
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                String text = new String(bytes, StandardCharsets.UTF_8);
+                if (op == ADD) {
+                    texts.add(text);
+                } else if (op == REMOVE) {
+                    texts.remove(text);
+                }
+            }
+            return buffer.position();
+        }
+    }
+
+    private void writeSnapshot(List<String> texts, long covered) throws IOException {
+        Path temporary = directory.resolve(name + ".snapshot.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(covered);
+            out.writeInt(texts.size());
+            for (String text : texts) {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        //Only once it's all there does it get its real name (and so count as a snapshot).
+        Path snapshot = directory.resolve(name + ".snapshot." + covered);
+        try {
+            Files.move(temporary, snapshot, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, snapshot);
+        }
+    }
+
+    /**
+     * Deletes the snapshots and journals that a newer snapshot makes unnecessary. If a file can't be deleted
+     * (it might still be mapped), it's skipped; it'll be tried again next time.
+     */
+    private void deleteFilesCoveredBy(long covered) {
+        try {
+            for (Path snapshot : findFiles(".snapshot.").headMap(covered, false).values()) {
+                Files.deleteIfExists(snapshot);
+            }
+            for (Path journal : findFiles(".journal.").headMap(covered, true).values()) {
+                Files.deleteIfExists(journal);
+            }
+        } catch (IOException ignored) {
+            //Leftovers are harmless; the snapshot says which journals it already covers.
+        }
+    }
+
+    /**
+     * @return this store's files whose names have the given infix, by generation.
+     */
+    private TreeMap<Long, Path> findFiles(String infix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        String prefix = name + infix;
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path path : paths) {
+                try {
+                    files.put(Long.parseLong(path.getFileName().toString().substring(prefix.length())), path);
+                } catch (NumberFormatException ignored) {
+                    //Not one of ours (or a snapshot that never got finished)
+                }
+            }
+        }
+        return files;
+    }
+
+    private void openJournal(long generation) throws IOException {
+        journalChannel = FileChannel.open(directory.resolve(name + ".journal." + generation),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        journalBufferStart = 0;
+        journalLength = 0;
+        journalBuffer = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, MAP_CHUNK);
+    }
+
+    private void closeJournal() throws IOException {
+        if (journalChannel == null || !journalChannel.isOpen()) {
+            return;
+        }
+
+        journalBuffer.force();
+        try {
+            //Trim off the unused part of the last chunk. (Some platforms won't allow this while the file is
+            //still mapped; that's fine, since the unused part is all zeros, which reads as the end.)
+            journalChannel.truncate(journalLength);
+        } catch (IOException ignored) {
+        }
+        journalChannel.close();
+
+        if (journalLength == 0) {
+            //Nothing was journaled, so don't leave an empty file lying around (if we're allowed to delete it yet)
+            try {
+                Files.deleteIfExists(directory.resolve(name + ".journal." + generation));
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Appends one record to the journal: its type, the length of the text, and the text.
+     */
+    private void append(byte op, String text) throws IOException {
+        byte[] bytes = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+        int size = 1 + 4 + bytes.length;
+
+        if (journalBuffer.remaining() < size + 1) {
+            //Map the next chunk, right where this one's been filled up to
+            journalBufferStart += journalBuffer.position();
+            journalBuffer = journalChannel.map(FileChannel.MapMode.READ_WRITE, journalBufferStart,
+                    Math.max(MAP_CHUNK, size + 1));
+        }
+
+        //The type goes in last, so a record that's only half written reads as the end of the journal.
+        int start = journalBuffer.position();
+        journalBuffer.position(start + 1);
+        journalBuffer.putInt(bytes.length);
+        journalBuffer.put(bytes);
+        journalBuffer.put(start, op);
+        journalLength += size;
+    }
+
+    /**
+     * Journals only the net difference between what was removed and what was added.
+     */
+    private void journalDifference(List<? extends T> removed, List<? extends T> added) throws IOException {
+        Map<String, Integer> counts = new HashMap<>();
+        for (T item : removed) {
+            counts.merge(converter.toString(item), -1, Integer::sum);
+        }
+        for (T item : added) {
+            counts.merge(converter.toString(item), 1, Integer::sum);
+        }
+
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            int count = entry.getValue();
+            for (; count < 0; count++) {
+                append(REMOVE, entry.getKey());
+            }
+            for (; count > 0; count--) {
+                append(ADD, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * The items' text while it's being replayed. It ends up in the same order a list would have it in (an
+     * addition goes on the end; a removal takes out the first one with that text), but without searching the
+     * list for each removal: each text's positions are remembered, and a removed one just leaves a gap.
+     */
+    private static final class ReplayedTexts {
+
+        /**
+         * Every text ever added, in order; removed ones are null.
+         */
+        private final List<String> texts = new ArrayList<>();
+
+        /**
+         * Where each text is in {@link #texts}, first to last.
+         */
+        private final Map<String, ArrayDeque<Integer>> positions = new HashMap<>();
+
+        private int size;
+
+        void add(String text) {
+            positions.computeIfAbsent(text, ignored -> new ArrayDeque<>()).addLast(texts.size());
+            texts.add(text);
+            size++;
+        }
+
+        /**
+         * Takes out the first one with this text, if there is one.
+         */
+        void remove(String text) {
+            ArrayDeque<Integer> at = positions.get(text);
+            if (at == null) {
+                return;
+            }
+            texts.set(at.pollFirst(), null);
+            if (at.isEmpty()) {
+                positions.remove(text);
+            }
+            size--;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return what's left, in order.
+         */
+        List<String> inOrder() {
+            List<String> left = new ArrayList<>(size);
+            for (String text : texts) {
+                if (text != null) {
+                    left.add(text);
+                }
+            }
+            return left;
+        }
+    }
+
+    private static synchronized ExecutorService getCompactor() {
+        if (compactor == null) {
+            compactor = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AddRemoveComboBox-journal-compactor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return compactor;
+    }
+}
@@ -0,0 +1,162 @@
+package tech.ugma.customcomponents;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.event.EventHandler;
+import javafx.geometry.HPos;
+import javafx.geometry.VPos;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.SkinBase;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+
+/**
+ * Stands in for an AddRemoveComboBox's real skin until it's needed.
+ * <p>
+ * The real skin ({@link AddRemoveComboBoxSkin}) comes with a ListView, a popup, and the behavior that
+ * handles the keyboard and mouse, which adds up when a screen has hundreds of combo boxes that mostly never
+ * get opened. This one is just what's needed to look like a closed combo box: a cell showing the value, and
+ * the arrow. It's made of the same style classes, so it's styled the same way.
+ * <p>
+ * The real skin takes over the first time the combo box is focused, hovered over, or shown, so it's in
+ * place before anything gets to it.
+ *
+ * @param <T> the type of the items
+ */
+@SuppressWarnings("Convert2Lambda")
+class LazyComboBoxSkin<T> extends SkinBase<AddRemoveComboBox<T>> {
+
+    /**
+     * Shows the value (or the prompt text), the same as the real skin's button cell.
+     */
+    private final ListCell<T> displayCell = new ListCell<>();
+
+    private final StackPane arrowButton = new StackPane();
+    private final Region arrow = new Region();
+
+    private final InvalidationListener updateDisplay = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            updateDisplayCell();
+        }
+    };
+
+    /**
+     * Anything more than looking at the combo box needs the real skin.
+     */
+    private final InvalidationListener onFocused = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            if (getSkinnable().isFocused()) {
+                getSkinnable().installSkin();
+            }
+        }
+    };
+
+    private final EventHandler<MouseEvent> onMouseEntered = new EventHandler<MouseEvent>() {
+        @Override
+        public void handle(MouseEvent event) {
+            getSkinnable().installSkin();
+        }
+    };
+
+    /**
+     * A button cell of someone else's making can only be shown by the real skin.
+     */
+    private final InvalidationListener onButtonCellChanged = new InvalidationListener() {
+        @Override
+        public void invalidated(Observable observable) {
+            getSkinnable().installSkin();
+        }
+    };
+
+    LazyComboBoxSkin(AddRemoveComboBox<T> comboBox) {
+        super(comboBox);
+
+        displayCell.setMouseTransparent(true);
+        arrowButton.getStyleClass().add("arrow-button");
+        arrow.getStyleClass().add("arrow");
+        arrow.setFocusTraversable(false);
+        arrowButton.getChildren().add(arrow);
+        getChildren().addAll(displayCell, arrowButton);
+        updateDisplayCell();
+
+        comboBox.valueProperty().addListener(updateDisplay);
+        comboBox.converterProperty().addListener(updateDisplay);
+        comboBox.promptTextProperty().addListener(updateDisplay);
+        comboBox.focusedProperty().addListener(onFocused);
+        comboBox.buttonCellProperty().addListener(onButtonCellChanged);
+        comboBox.addEventHandler(MouseEvent.MOUSE_ENTERED, onMouseEntered);
+    }
+
+    private void updateDisplayCell() {
+        T value = getSkinnable().getValue();
+        if (value == null) {
+            String prompt = getSkinnable().getPromptText();
+            displayCell.setText(prompt == null || prompt.isEmpty() ? null : prompt);
+        } else {
+            displayCell.setText(getSkinnable().toDisplayText(value));
+        }
+    }
+
+    /*
+     * The layout's the same as the real skin's: the arrow on the right, as wide as it wants to be, and the
+     * cell taking up the rest.
+     */
+
+    private double arrowButtonWidth() {
+        return arrowButton.snappedLeftInset() + snapSize(arrow.prefWidth(-1)) + arrowButton.snappedRightInset();
+    }
+
+    @Override
+    protected void layoutChildren(double x, double y, double w, double h) {
+        double arrowButtonWidth = arrowButtonWidth();
+        displayCell.resizeRelocate(x, y, w - arrowButtonWidth, h);
+        arrowButton.resize(arrowButtonWidth, h);
+        positionInArea(arrowButton, x + w - arrowButtonWidth, y, arrowButtonWidth, h, 0, HPos.CENTER, VPos.CENTER);
+    }
+
+    /**
+     * Only as wide as the value needs. (The real skin is as wide as the widest item, which would mean
+     * measuring every item; give the combo box a preferred width if it mustn't change size when the real
+     * skin takes over.)
+     */
+    @Override
+    protected double computePrefWidth(double height, double topInset, double rightInset, double bottomInset,
+                                      double leftInset) {
+        return leftInset + displayCell.prefWidth(height) + arrowButtonWidth() + rightInset;
+    }
+
+    @Override
+    protected double computePrefHeight(double width, double topInset, double rightInset, double bottomInset,
+                                       double leftInset) {
+        double arrowButtonHeight = arrowButton.snappedTopInset() + arrow.prefHeight(-1)
+                + arrowButton.snappedBottomInset();
+        return topInset + Math.max(displayCell.prefHeight(width), arrowButtonHeight) + bottomInset;
+    }
+
+    @Override
+    protected double computeMaxWidth(double height, double topInset, double rightInset, double bottomInset,
+                                     double leftInset) {
+        return getSkinnable().prefWidth(height);
+    }
+
+    @Override
+    protected double computeMaxHeight(double width, double topInset, double rightInset, double bottomInset,
+                                      double leftInset) {
+        return getSkinnable().prefHeight(width);
+    }
+
+    @Override
+    public void dispose() {
+        AddRemoveComboBox<T> comboBox = getSkinnable();
+        comboBox.valueProperty().removeListener(updateDisplay);
+        comboBox.converterProperty().removeListener(updateDisplay);
+        comboBox.promptTextProperty().removeListener(updateDisplay);
+        comboBox.focusedProperty().removeListener(onFocused);
+        comboBox.buttonCellProperty().removeListener(onButtonCellChanged);
+        comboBox.removeEventHandler(MouseEvent.MOUSE_ENTERED, onMouseEntered);
+        super.dispose();
+    }
+}
@@ -0,0 +1,201 @@
+package tech.ugma.customcomponents;
+
+import javafx.collections.ObservableListBase;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An ObservableList that loads its items from an {@link ItemProvider}, a page at a time.
+ * <p>
+ * The popup's ListView only ever asks for the rows it's showing, so only those pages are ever loaded.
+ * The most recently used pages are kept around (up to a limit); the rest are forgotten and
+ * loaded again if they're needed again.
+ * <p>
+ * Adding and removing items is passed on to the provider, which decides where new items go.
+ * Changes are announced the same as with any other ObservableList.
+ *
+ * @param <T> the type of the items
+ */
+public class PagedItemList<T> extends ObservableListBase<T> {
+
+    /**
+     * How many items are loaded at a time, unless you say otherwise.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 256;
+
+    /**
+     * How many pages are kept around at once, unless you say otherwise.
+     */
+    public static final int DEFAULT_CACHED_PAGES = 16;
+
+    private final ItemProvider<T> provider;
+
+    private final int pageSize;
+
+    /**
+     * The loaded pages, by page number, from least to most recently used. Once there are too many,
+     * the least recently used page is dropped.
+     */
+    private final Map<Integer, List<T>> pages;
+
+    /**
+     * How many items there are. Kept here so the provider only has to count them once.
+     */
+    private int size;
+
+    public PagedItemList(ItemProvider<T> provider) {
+        this(provider, DEFAULT_PAGE_SIZE, DEFAULT_CACHED_PAGES);
+    }
+
+    /**
+     * @param provider    where the items come from
+     * @param pageSize    how many items to load at a time
+     * @param cachedPages how many pages to keep around at once
+     */
+    public PagedItemList(ItemProvider<T> provider, int pageSize, final int cachedPages) {
+        if (provider == null) {
+            throw new NullPointerException("Item provider is null.");
+        }
+        if (pageSize < 1 || cachedPages < 1) {
+            throw new IllegalArgumentException("Page size and number of cached pages must be at least 1.");
+        }
+
+        this.provider = provider;
+        this.pageSize = pageSize;
+        this.size = provider.size();
+        this.pages = new LinkedHashMap<Integer, List<T>>(cachedPages * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, List<T>> eldest) {
+                return size() > cachedPages;
+            }
+        };
+    }
+
+    @Override
+    public T get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+
+        List<T> page = getPage(index / pageSize);
+        int indexInPage = index % pageSize;
+        return indexInPage < page.size() ? page.get(indexInPage) : null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Asks the provider, rather than loading every page to look for the item.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public int indexOf(Object item) {
+        return provider.indexOf((T) item);
+    }
+
+    @Override
+    public boolean contains(Object item) {
+        return indexOf(item) >= 0;
+    }
+
+    /**
+     * Hands the item to the provider, which decides where it goes.
+     */
+    @Override
+    public boolean add(T item) {
+        int index = provider.add(item);
+        if (index < 0) {
+            return false;
+        }
+
+        size++;
+        forgetPagesFrom(index);
+
+        beginChange();
+        nextAdd(index, index + 1);
+        endChange();
+        return true;
+    }
+
+    /**
+     * The provider decides where items go, so the index is ignored.
+     */
+    @Override
+    public void add(int index, T item) {
+        add(item);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean remove(Object item) {
+        int index = provider.remove((T) item);
+        if (index < 0) {
+            return false;
+        }
+
+        size--;
+        forgetPagesFrom(index);
+
+        beginChange();
+        nextRemove(index, (T) item);
+        endChange();
+        return true;
+    }
+
+    @Override
+    public T remove(int index) {
+        T item = get(index);
+        remove(item);
+        return item;
+    }
+
+    /**
+     * Runs a whole bunch of additions and removals, announcing them all as a single change once they're done.
+     *
+     * @param changes adds and removes items from this list
+     */
+    void batch(Runnable changes) {
+        beginChange();
+        try {
+            changes.run();
+        } finally {
+            endChange();
+        }
+    }
+
+    /**
+     * Gets a page, loading it if we don't have it already.
+     */
+    private List<T> getPage(int pageNumber) {
+        List<T> page = pages.get(pageNumber);
+        if (page == null) {
+            int from = pageNumber * pageSize;
+            page = provider.load(from, Math.min(pageSize, size - from));
+            if (page == null) {
+                page = Collections.emptyList();
+            }
+            pages.put(pageNumber, page);
+        }
+        return page;
+    }
+
+    /**
+     * Everything from the given index on has moved, so the pages holding those items are out of date.
+     */
+    private void forgetPagesFrom(int index) {
+        int firstStalePage = index / pageSize;
+        Iterator<Integer> pageNumbers = pages.keySet().iterator();
+        while (pageNumbers.hasNext()) {
+            if (pageNumbers.next() >= firstStalePage) {
+                pageNumbers.remove();
+            }
+        }
+    }
+}
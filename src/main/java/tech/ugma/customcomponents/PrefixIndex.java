@@ -0,0 +1,318 @@
+package tech.ugma.customcomponents;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.collections.ListChangeListener;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+
+/**
+ * Finds the items whose text has a word starting with whatever's been typed, without looking at every item.
+ * <p>
+ * Every item's text is normalized (so case and accents don't matter), and then filed under each of its
+ * word starts: "New York City" is filed under "new york city", "york city" and "city". Everything filed
+ * under a key that starts with what was typed is a match, so typing "yo" or "york c" finds it. The keys are
+ * kept in a sorted map, so finding them is a single range lookup.
+ * <p>
+ * Small changes to the list are filed (or unfiled) straight away, on the JavaFX Application Thread. When a
+ * lot of the list changes at once (like when it's replaced with {@code setAll}), the whole index is built
+ * again on a background thread instead, and the old one is used until the new one is ready. Because of that,
+ * the item's text is worked out off the JavaFX Application Thread then, so the converter has to be safe
+ * to call from any thread (which converters nearly always are).
+ * <p>
+ * Lookups can happen on any thread. They might not see a change that's being made at the same time, but
+ * the filter looks again after every change anyway.
+ *
+ * @param <T> the type of the items
+ */
+class PrefixIndex<T> implements ListChangeListener<T> {
+
+    /**
+     * Changes to more items than this at once get the index built again in the background, rather than
+     * being filed one at a time on the JavaFX Application Thread.
+     */
+    static final int REBUILD_THRESHOLD = 2_000;
+
+    /**
+     * How often a lookup checks whether it's been cancelled.
+     */
+    private static final int CANCEL_CHECK_INTERVAL = 1024;
+
+    /**
+     * Where rebuilds and lookups run. Its threads are daemons, so they won't keep the application running.
+     */
+    private static ExecutorService executor;
+
+    private final List<T> items;
+
+    private final Function<? super T, String> textOf;
+
+    /**
+     * Each word start, and the items filed under it (an item that's in the list twice is filed twice).
+     * <p>
+     * The arrays are never changed, only replaced, so a lookup on another thread can read them without
+     * locking. Most word starts only belong to one item, so that's a lot lighter than a set per word start.
+     */
+    private volatile ConcurrentSkipListMap<String, Object[]> terms = new ConcurrentSkipListMap<>();
+
+    /**
+     * Which rebuild is the latest. A rebuild that finishes after a newer one has started is thrown away.
+     */
+    private long generation;
+
+    /**
+     * While a rebuild is running, the changes made to the list since it took its copy. They're made to the new
+     * index once it's ready.
+     */
+    private List<Runnable> changesDuringRebuild;
+
+    private final ReadOnlyBooleanWrapper rebuilding = new ReadOnlyBooleanWrapper(this, "rebuilding", false);
+
+    PrefixIndex(List<T> items, Function<? super T, String> textOf) {
+        this.items = items;
+        this.textOf = textOf;
+        rebuild();
+    }
+
+    @Override
+    public void onChanged(Change<? extends T> c) {
+        int changed = 0;
+        while (c.next()) {
+            if (!c.wasPermutated() && !c.wasUpdated()) {
+                changed += c.getRemovedSize() + c.getAddedSize();
+            }
+        }
+        if (changed > REBUILD_THRESHOLD) {
+            rebuild();
+            return;
+        }
+
+        c.reset();
+        while (c.next()) {
+            if (c.wasPermutated() || c.wasUpdated()) {
+                //Same items, so nothing to file
+                continue;
+            }
+            for (T removed : c.getRemoved()) {
+                remove(removed);
+            }
+            for (T added : c.getAddedSubList()) {
+                add(added);
+            }
+        }
+    }
+
+    void add(T item) {
+        if (AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(item)) {
+            return;
+        }
+        String text = textOf.apply(item);
+        file(terms, item, text, 1);
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(() -> file(terms, item, text, 1));
+        }
+    }
+
+    void remove(T item) {
+        if (AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(item)) {
+            return;
+        }
+        String text = textOf.apply(item);
+        file(terms, item, text, -1);
+        if (changesDuringRebuild != null) {
+            changesDuringRebuild.add(() -> file(terms, item, text, -1));
+        }
+    }
+
+    /**
+     * Files an item under each of its word starts (or, with a negative change, takes it back out once).
+     */
+    private static void file(ConcurrentSkipListMap<String, Object[]> terms, Object item, String text, int change) {
+        for (String term : termsOf(text)) {
+            if (change > 0) {
+                terms.merge(term, new Object[]{item}, PrefixIndex::concat);
+            } else {
+                terms.computeIfPresent(term, (key, filed) -> without(filed, item));
+            }
+        }
+    }
+
+    private static Object[] concat(Object[] filed, Object[] more) {
+        Object[] combined = Arrays.copyOf(filed, filed.length + more.length);
+        System.arraycopy(more, 0, combined, filed.length, more.length);
+        return combined;
+    }
+
+    /**
+     * @return the items without (one of) the given item, or null if that leaves none.
+     */
+    private static Object[] without(Object[] filed, Object item) {
+        for (int i = 0; i < filed.length; i++) {
+            if (Objects.equals(filed[i], item)) {
+                if (filed.length == 1) {
+                    return null;
+                }
+                Object[] fewer = new Object[filed.length - 1];
+                System.arraycopy(filed, 0, fewer, 0, i);
+                System.arraycopy(filed, i + 1, fewer, i, filed.length - i - 1);
+                return fewer;
+            }
+        }
+        return filed;
+    }
+
+    /**
+     * @return the keys a piece of text is filed under: the (normalized) text from the start of each word on.
+     */
+    static Set<String> termsOf(String text) {
+        String normalized = normalize(text);
+        if (normalized.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> terms = new HashSet<>();
+        boolean atWordStart = true;
+        for (int i = 0; i < normalized.length(); i++) {
+            boolean isWordCharacter = Character.isLetterOrDigit(normalized.charAt(i));
+            if (isWordCharacter && atWordStart) {
+                terms.add(normalized.substring(i));
+            }
+            atWordStart = !isWordCharacter;
+        }
+        if (terms.isEmpty()) {
+            //No letters or digits at all (just punctuation, say), so it can only be found as a whole.
+            terms.add(normalized);
+        }
+        return terms;
+    }
+
+    /**
+     * @return the text the way it's compared: without case, accents or surrounding whitespace.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+
+        //Plain ASCII has no accents to take off, so it can skip the (much slower) Unicode normalization.
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) >= 0x80) {
+                return DuplicateMatching.IGNORE_CASE_AND_ACCENTS.keyOf(text).trim();
+            }
+        }
+        return text.toLowerCase(Locale.ROOT).trim();
+    }
+
+    /**
+     * Builds the whole index again, in the background. Until it's done, the old one is used.
+     */
+    void rebuild() {
+        final Object[] snapshot = items.toArray();
+        final long thisGeneration = ++generation;
+        changesDuringRebuild = new ArrayList<>();
+        rebuilding.set(true);
+
+        getExecutor().execute(new Runnable() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public void run() {
+                //Gather everything up in a plain map first; a skip list made from an already sorted map is
+                //put together in one go, which is far quicker than inserting each word start into it.
+                Map<String, List<Object>> gathered = new HashMap<>(snapshot.length * 4);
+                for (Object item : snapshot) {
+                    if (!AddRemoveComboBox.LEGACY_ADD_CELL_PLACEHOLDER.equals(item)) {
+                        for (String term : termsOf(textOf.apply((T) item))) {
+                            gathered.computeIfAbsent(term, key -> new ArrayList<>(1)).add(item);
+                        }
+                    }
+                }
+                TreeMap<String, Object[]> sorted = new TreeMap<>();
+                for (Map.Entry<String, List<Object>> entry : gathered.entrySet()) {
+                    sorted.put(entry.getKey(), entry.getValue().toArray());
+                }
+                ConcurrentSkipListMap<String, Object[]> rebuilt = new ConcurrentSkipListMap<>(sorted);
+
+                Platform.runLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (thisGeneration != generation) {
+                            //There's a newer one on the way
+                            return;
+                        }
+
+                        //Catch the new index up on whatever happened while it was being built
+                        List<Runnable> missed = changesDuringRebuild;
+                        changesDuringRebuild = null;
+                        terms = rebuilt;
+                        for (Runnable change : missed) {
+                            change.run();
+                        }
+                        rebuilding.set(false);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Finds every item filed under a key starting with the prefix. Can be called from any thread.
+     *
+     * @param prefix    what was typed
+     * @param cancelled checked every so often; once it returns true, the lookup gives up
+     * @return the matching items (in no particular order), or null if the lookup was cancelled
+     */
+    @SuppressWarnings("unchecked")
+    Set<T> find(String prefix, BooleanSupplier cancelled) {
+        String normalized = normalize(prefix);
+        NavigableMap<String, Object[]> matches = normalized.isEmpty()
+                ? terms
+                : terms.subMap(normalized, true, normalized + Character.MAX_VALUE, false);
+
+        Set<T> found = new HashSet<>();
+        int checked = 0;
+        for (Object[] filed : matches.values()) {
+            for (Object item : filed) {
+                found.add((T) item);
+            }
+            if (++checked % CANCEL_CHECK_INTERVAL == 0 && cancelled.getAsBoolean()) {
+                return null;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return true while the index is being built again in the background.
+     */
+    ReadOnlyBooleanProperty rebuildingProperty() {
+        return rebuilding.getReadOnlyProperty();
+    }
+
+    static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "AddRemoveComboBox-filter");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return executor;
+    }
+}
@@ -0,0 +1,561 @@
+package tech.ugma.customcomponents;
+
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.util.StringConverter;
+import javafx.util.converter.DefaultStringConverter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the items of AddRemoveComboBoxes in different applications (on the same computer) in step, through
+ * a file they share.
+ * <p>
+ * Each application binds its combo box to the same file. Every addition and removal made in one is appended
+ * to the file, and the others, watching the file with a {@link WatchService}, read just what was appended
+ * and make the same changes to their own items. Nothing is ever reloaded: each change is made where it
+ * belongs (binary searched), and a big pile of them is made as one batch, with one ordering pass.
+ * <pre>
+ * <code>SharedItemFile&lt;String&gt; shared = SharedItemFile.open(directory.resolve("carriers.shared"));
+ * shared.bind(comboBox);
+ * ...
+ * shared.close();</code>
+ * </pre>
+ * Only changes made after binding are shared; each application still loads its own items to start with
+ * (from a {@link JournalItemStore}, say). So the file doesn't grow forever, whoever opens it while no one
+ * else has it open starts it over.
+ * <p>
+ * Changes are written once per pulse, with whatever cancelled out (an item moved by sorting by usage, say)
+ * left out, and they're written on a background thread. Appending is done under a file lock, so two
+ * applications writing at once can't mix up their changes. Items are stored as text, using a StringConverter.
+ * <p>
+ * How quickly changes show up depends on the platform's WatchService; it's practically instant on Windows
+ * and Linux, but some platforms (macOS, for one) only check every few seconds.
+ *
+ * @param <T> the type of the items
+ */
+@SuppressWarnings("Convert2Lambda")
+public class SharedItemFile<T> implements Closeable {
+
+    /**
+     * Starts the file, so we don't go appending to something that isn't one of ours.
+     */
+    private static final int MAGIC = 0x41525353;
+
+    private static final int HEADER_LENGTH = 4;
+
+    /**
+     * Record types.
+     */
+    private static final byte ADD = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * Each record is its type, who wrote it, and the length of its text, followed by the text.
+     */
+    private static final int RECORD_HEADER_LENGTH = 1 + 8 + 4;
+
+    /**
+     * Where in the file (well past the end of it) everyone who has it open holds a shared lock, so an
+     * application can tell whether it's the only one.
+     */
+    private static final long PRESENCE = Long.MAX_VALUE - 1;
+
+    /**
+     * Writes changes to the file, in order, off the JavaFX Application Thread. Its thread is a daemon, so it
+     * won't keep the application running.
+     */
+    private static ExecutorService writer;
+
+    /**
+     * Every shared file open in this application, by path, however many SharedItemFiles have it open. File
+     * locks belong to the whole application, so two channels of the same file asking for the same lock would
+     * trip over each other (an OverlappingFileLockException) rather than one waiting for the other; the file
+     * is opened (and locked) once, and everyone here uses that.
+     */
+    private static final Map<Path, OpenFile> openFiles = new HashMap<>();
+
+    private final Path file;
+
+    private final StringConverter<T> converter;
+
+    /**
+     * Tells our records apart from everyone else's.
+     */
+    private final long origin = Double.doubleToLongBits(Math.random()) ^ System.nanoTime();
+
+    private final OpenFile openFile;
+
+    private final FileChannel channel;
+
+    private final WatchService watchService;
+
+    /**
+     * How far into the file we've read (everything before this has already been applied).
+     * Only the watching thread touches this.
+     */
+    private long readPosition;
+
+    private AddRemoveItemModel<T> model;
+
+    private ObservableList<T> boundItems;
+
+    /**
+     * Whether we're making changes that came from someone else, which (of course) aren't written back.
+     */
+    private boolean applyingRemote;
+
+    /**
+     * The changes made since they were last written: how many more of each item's text were added than
+     * removed. Written out once per pulse.
+     */
+    private final Map<String, Integer> pending = new LinkedHashMap<>();
+
+    private boolean flushScheduled;
+
+    /**
+     * Writes down every change to the bound items (that didn't come from someone else). It's told about each
+     * change by the model, before anything's moved to keep the items in order, so the added items it's told
+     * about are the ones that were really added.
+     */
+    private final ListChangeListener<T> changeListener = new ListChangeListener<T>() {
+        @Override
+        public void onChanged(Change<? extends T> c) {
+            if (applyingRemote) {
+                return;
+            }
+
+            while (c.next()) {
+                if (c.wasPermutated() || c.wasUpdated()) {
+                    //The order is every application's own business
+                    continue;
+                }
+                for (T removed : c.getRemoved()) {
+                    pending.merge(converter.toString(removed), -1, Integer::sum);
+                }
+                for (T added : c.getAddedSubList()) {
+                    pending.merge(converter.toString(added), 1, Integer::sum);
+                }
+            }
+            scheduleFlush();
+        }
+    };
+
+    private SharedItemFile(Path file, StringConverter<T> converter) throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        this.converter = converter;
+
+        openFile = OpenFile.acquire(this.file);
+        channel = openFile.channel;
+        try {
+            readPosition = channel.size();
+
+            watchService = this.file.getFileSystem().newWatchService();
+            this.file.getParent().register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            openFile.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens (or creates) a shared file of Strings.
+     *
+     * @param file the file every application shares
+     * @return the shared file, ready to be bound to a combo box
+     * @throws IOException if the file can't be opened, or isn't a shared item file
+     */
+    public static SharedItemFile<String> open(Path file) throws IOException {
+        return open(file, new DefaultStringConverter());
+    }
+
+    /**
+     * Opens (or creates) a shared file.
+     *
+     * @param file      the file every application shares
+     * @param converter turns items into text to be shared, and back again
+     * @param <T>       the type of the items
+     * @return the shared file, ready to be bound to a combo box
+     * @throws IOException if the file can't be opened, or isn't a shared item file
+     */
+    public static <T> SharedItemFile<T> open(Path file, StringConverter<T> converter) throws IOException {
+        return new SharedItemFile<>(file, converter);
+    }
+
+    /**
+     * Shares every change made to the combo box's items from now on, and makes everyone else's changes to them.
+     * <p>
+     * Call this on the JavaFX Application Thread.
+     *
+     * @param comboBox the combo box whose items are to be shared
+     */
+    public void bind(AddRemoveComboBox<T> comboBox) {
+        if (boundItems != null) {
+            throw new IllegalStateException("This shared file is already bound to a combo box.");
+        }
+
+        model = comboBox.getItemModel();
+        boundItems = model.getItems();
+        model.watchChanges(changeListener);
+
+        Thread watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "AddRemoveComboBox-sync");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    /**
+     * Waits for the file to change, and reads whatever's been added to it each time. Runs on its own thread
+     * until the shared file is closed.
+     */
+    private void watch() {
+        try {
+            //Anything written between opening the file and now
+            readNewRecords();
+
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean ours = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object changed = event.context();
+                    //An overflow has no context; it might have been us, so check anyway.
+                    ours |= changed == null || file.getFileName().equals(changed);
+                }
+                key.reset();
+
+                if (ours) {
+                    readNewRecords();
+                }
+            }
+        } catch (ClosedWatchServiceException | ClosedChannelException | InterruptedException e) {
+            //Closed; we're done
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads the records appended since we last looked, and has the JavaFX Application Thread make the
+     * changes in them (other than our own).
+     */
+    private void readNewRecords() throws IOException {
+        long size = channel.size();
+        if (size < readPosition) {
+            //Someone started it over
+            readPosition = HEADER_LENGTH;
+        }
+        if (size == readPosition) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size - readPosition, Integer.MAX_VALUE));
+        while (buffer.hasRemaining() && channel.read(buffer, readPosition + buffer.position()) > 0) {
+        }
+        buffer.flip();
+
+        List<Delta> deltas = new ArrayList<>();
+        while (buffer.remaining() >= RECORD_HEADER_LENGTH) {
+            int start = buffer.position();
+            byte op = buffer.get();
+            long author = buffer.getLong();
+            int length = buffer.getInt();
+            if (length > buffer.remaining()) {
+                //It's still being written; it'll be read next time
+                buffer.position(start);
+                break;
+            }
+
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            if (author != origin && (op == ADD || op == REMOVE)) {
+                deltas.add(new Delta(op == ADD, new String(bytes, StandardCharsets.UTF_8)));
+            }
+        }
+        readPosition += buffer.position();
+
+        if (!deltas.isEmpty()) {
+            Platform.runLater(new Runnable() {
+                @Override
+                public void run() {
+                    apply(deltas);
+                }
+            });
+        }
+    }
+
+    /**
+     * Makes someone else's changes to our items, with {@link AddRemoveItemModel#applyChanges(List)}: a few are
+     * each put right where they belong; lots are made as one batch. Either way, none of it goes into the undo
+     * history, and none of it is written back.
+     */
+    private void apply(List<Delta> deltas) {
+        if (boundItems == null) {
+            //Closed in the meantime
+            return;
+        }
+
+        applyingRemote = true;
+        try {
+            List<ItemChange<T>> changes = new ArrayList<>(deltas.size());
+            for (Delta delta : deltas) {
+                changes.add(new ItemChange<>(converter.fromString(delta.text), delta.addition));
+            }
+            model.applyChanges(changes);
+        } finally {
+            applyingRemote = false;
+        }
+    }
+
+    private void scheduleFlush() {
+        if (flushScheduled || pending.isEmpty()) {
+            return;
+        }
+        flushScheduled = true;
+
+        Platform.runLater(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        });
+    }
+
+    /**
+     * Writes out the changes made since last time (in the background), leaving out whatever cancelled out.
+     */
+    private void flush() {
+        flushScheduled = false;
+
+        List<Delta> deltas = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : pending.entrySet()) {
+            int count = entry.getValue();
+            for (; count < 0; count++) {
+                deltas.add(new Delta(false, entry.getKey()));
+            }
+            for (; count > 0; count--) {
+                deltas.add(new Delta(true, entry.getKey()));
+            }
+        }
+        pending.clear();
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(deltas);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends records to the end of the file, all at once, while holding the lock that keeps anyone else
+     * from appending at the same time. (Within this application, everything's written from the one writer
+     * thread, so it never asks for that lock twice at once.)
+     */
+    private void write(List<Delta> deltas) throws IOException {
+        List<byte[]> texts = new ArrayList<>(deltas.size());
+        int size = 0;
+        for (Delta delta : deltas) {
+            byte[] bytes = (delta.text == null ? "" : delta.text).getBytes(StandardCharsets.UTF_8);
+            texts.add(bytes);
+            size += RECORD_HEADER_LENGTH + bytes.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < deltas.size(); i++) {
+            buffer.put(deltas.get(i).addition ? ADD : REMOVE);
+            buffer.putLong(origin);
+            buffer.putInt(texts.get(i).length);
+            buffer.put(texts.get(i));
+        }
+        buffer.flip();
+
+        if (!channel.isOpen()) {
+            return;
+        }
+        try (FileLock ignored = channel.lock(0, PRESENCE, false)) {
+            long end = channel.size();
+            while (buffer.hasRemaining()) {
+                end += channel.write(buffer, end);
+            }
+        }
+    }
+
+    /**
+     * Stops sharing changes (changes that haven't been written yet still are, first) and closes the file.
+     * <p>
+     * Call this on the JavaFX Application Thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (boundItems != null) {
+            model.unwatchChanges(changeListener);
+            flush();
+            boundItems = null;
+        }
+        watchService.close();
+
+        //Let go of the file once everything that was waiting to be written has been (it's closed once nobody
+        //in this application has it open)
+        getWriter().execute(new Runnable() {
+            @Override
+            public void run() {
+                openFile.release();
+            }
+        });
+    }
+
+    private static synchronized ExecutorService getWriter() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "AddRemoveComboBox-sync-writer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    /**
+     * A shared file, opened once for everyone in this application who has it open, along with our presence
+     * lock on it (which says, to other applications, that someone here has it open).
+     */
+    private static final class OpenFile {
+        final Path file;
+        final FileChannel channel;
+        final FileLock presence;
+
+        /**
+         * How many SharedItemFiles in this application have it open. Guarded by {@link #openFiles}.
+         */
+        int users;
+
+        private OpenFile(Path file, FileChannel channel, FileLock presence) {
+            this.file = file;
+            this.channel = channel;
+            this.presence = presence;
+        }
+
+        /**
+         * Opens the file (and starts it, see {@link #start(Path, FileChannel)}), unless it's already open here.
+         */
+        static OpenFile acquire(Path file) throws IOException {
+            synchronized (openFiles) {
+                OpenFile open = openFiles.get(file);
+                if (open == null) {
+                    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                            StandardOpenOption.WRITE);
+                    try {
+                        open = new OpenFile(file, channel, start(file, channel));
+                    } catch (IOException | RuntimeException e) {
+                        channel.close();
+                        throw e;
+                    }
+                    openFiles.put(file, open);
+                }
+                open.users++;
+                return open;
+            }
+        }
+
+        /**
+         * Closes the file, once nobody in this application has it open anymore.
+         */
+        void release() {
+            synchronized (openFiles) {
+                if (--users > 0) {
+                    return;
+                }
+                openFiles.remove(file);
+                try {
+                    //Closing the channel lets go of the presence lock too
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        /**
+         * Starts the file over if nobody else has it open, checks that it's one of ours, and lets everyone
+         * else know we've got it open.
+         * <p>
+         * All of that happens while holding the lock everyone takes to append, or to start the file. So
+         * nobody can start it over between our finding out whether we're alone and our presence lock being
+         * taken; they'd have to wait for the lock, and by then they'd see us.
+         *
+         * @return our presence lock
+         */
+        private static FileLock start(Path file, FileChannel channel) throws IOException {
+            try (FileLock ignored = channel.lock(0, PRESENCE, false)) {
+                FileLock alone = channel.tryLock(PRESENCE, 1, false);
+                if (alone != null || channel.size() < HEADER_LENGTH) {
+                    //Nobody else is around to read the old changes, so there's no sense keeping them
+                    channel.truncate(0);
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(MAGIC);
+                    header.flip();
+                    channel.write(header, 0);
+                } else {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+                    channel.read(header, 0);
+                    header.flip();
+                    if (header.getInt() != MAGIC) {
+                        throw new IOException(file + " isn't a shared item file.");
+                    }
+                }
+
+                //Swap finding out whether we're alone for being present (which can't be done while holding
+                //both), still holding the lock that keeps anyone else from starting the file meanwhile.
+                if (alone != null) {
+                    alone.release();
+                }
+                return channel.lock(PRESENCE, 1, true);
+            }
+        }
+    }
+
+    /**
+     * One change: an item's text, added or removed.
+     */
+    private static final class Delta {
+        final boolean addition;
+        final String text;
+
+        Delta(boolean addition, String text) {
+            this.addition = addition;
+            this.text = text;
+        }
+    }
+}
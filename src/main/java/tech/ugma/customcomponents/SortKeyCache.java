@@ -0,0 +1,256 @@
+package tech.ugma.customcomponents;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Remembers the sort key of every item so that sorting only ever has to compare keys.
+ * Items are sorted by their text, which is what {@code textOf} turns them into.
+ * <p>
+ * Working out where a string goes alphabetically (collating it) is far from free, and a sort compares
+ * each item many times over. So the first time an item is compared its {@link CollationKey} is made and
+ * kept here until the item is taken out of the list.
+ * <p>
+ * With natural ordering turned on, runs of digits are compared by their numeric value, so
+ * "Item 9" comes before "Item 10".
+ */
+class SortKeyCache<T> {
+
+    /**
+     * Turns an item into the text it's sorted by.
+     */
+    private final Function<? super T, String> textOf;
+
+    /**
+     * The locale whose alphabet the items are sorted by.
+     */
+    private Locale locale = Locale.getDefault();
+
+    /**
+     * How picky the collator is about accents and case. See {@link Collator#setStrength(int)}.
+     */
+    private int strength = Collator.TERTIARY;
+
+    /**
+     * Whether runs of digits are compared as numbers.
+     */
+    private boolean naturalOrdering = false;
+
+    /**
+     * Made once (not once per comparison) and only remade when the locale or strength changes.
+     */
+    private Collator collator;
+
+    /**
+     * Every item's sort key, made the first time the item was compared.
+     */
+    private final Map<T, SortKey> keys = new HashMap<>();
+
+    SortKeyCache(Function<? super T, String> textOf) {
+        this.textOf = textOf;
+    }
+
+    /**
+     * Compares two items by their (cached) sort keys.
+     */
+    int compare(T o1, T o2) {
+        return keyFor(o1).compareTo(keyFor(o2));
+    }
+
+    /**
+     * Gets the item's sort key, making it if this is the first time we've seen the item.
+     */
+    SortKey keyFor(T item) {
+        SortKey key = keys.get(item);
+        if (key == null) {
+            String text = textOf.apply(item);
+            key = new SortKey(text == null ? "" : text);
+            keys.put(item, key);
+        }
+        return key;
+    }
+
+    /**
+     * Forgets an item's sort key; called when the item is removed from the list.
+     */
+    void evict(Object item) {
+        keys.remove(item);
+    }
+
+    /**
+     * Forgets the sort keys of everything that isn't in the given items; used after a whole batch of
+     * changes, when it's cheaper to check everything once than to look at each removal.
+     */
+    void retainOnly(Collection<?> items) {
+        keys.keySet().retainAll(items instanceof Set ? items : new HashSet<>(items));
+    }
+
+    /**
+     * @return an empty cache with the same sorting rules, for sorting items somewhere else (on another
+     * thread, say) before they're added. Its keys can then be handed over with {@link #adopt(SortKeyCache)}.
+     */
+    SortKeyCache<T> copyRules() {
+        SortKeyCache<T> copy = new SortKeyCache<>(textOf);
+        copy.locale = locale;
+        copy.strength = strength;
+        copy.naturalOrdering = naturalOrdering;
+        return copy;
+    }
+
+    /**
+     * Takes the sort keys another cache has already made, so they don't have to be made again. If the
+     * sorting rules have changed since it was copied, its keys are no good to us, and are left alone.
+     */
+    void adopt(SortKeyCache<T> other) {
+        if (other.locale.equals(locale) && other.strength == strength && other.naturalOrdering == naturalOrdering) {
+            keys.putAll(other.keys);
+        }
+    }
+
+    /**
+     * Forgets every sort key; they'll all need to be remade after the sorting rules change.
+     */
+    void clear() {
+        keys.clear();
+        collator = null;
+    }
+
+    Locale getLocale() {
+        return locale;
+    }
+
+    void setLocale(Locale locale) {
+        this.locale = locale == null ? Locale.getDefault() : locale;
+        clear();
+    }
+
+    int getStrength() {
+        return strength;
+    }
+
+    void setStrength(int strength) {
+        this.strength = strength;
+        clear();
+    }
+
+    boolean isNaturalOrdering() {
+        return naturalOrdering;
+    }
+
+    void setNaturalOrdering(boolean naturalOrdering) {
+        this.naturalOrdering = naturalOrdering;
+        clear();
+    }
+
+    private Collator getCollator() {
+        if (collator == null) {
+            collator = Collator.getInstance(locale);
+            collator.setStrength(strength);
+        }
+        return collator;
+    }
+
+    /**
+     * An item's precomputed sort key.
+     * <p>
+     * Without natural ordering it's just the item's collation key. With natural ordering the item is
+     * broken up into runs of text and runs of digits; text runs get collation keys and digit runs are
+     * compared by value (digits first, then text, same as most file browsers do it).
+     */
+    final class SortKey implements Comparable<SortKey> {
+
+        /**
+         * Either {@link CollationKey}s (text) or digit strings with their leading zeros stripped (numbers).
+         */
+        private final Object[] segments;
+
+        /**
+         * Breaks ties between items like "Item 7" and "Item 007", which would otherwise be equal.
+         */
+        private final CollationKey wholeKey;
+
+        private SortKey(String item) {
+            wholeKey = getCollator().getCollationKey(item);
+            segments = naturalOrdering ? split(item) : new Object[]{wholeKey};
+        }
+
+        private Object[] split(String item) {
+            List<Object> parts = new ArrayList<>();
+            StringBuilder run = new StringBuilder();
+            boolean inDigits = false;
+
+            for (int i = 0; i < item.length(); i++) {
+                char ch = item.charAt(i);
+                boolean isDigit = Character.isDigit(ch);
+                if (isDigit != inDigits && run.length() > 0) {
+                    parts.add(segment(run, inDigits));
+                    run.setLength(0);
+                }
+                inDigits = isDigit;
+                //Any script's digits are compared like plain 0-9
+                run.append(isDigit ? (char) ('0' + Character.digit(ch, 10)) : ch);
+            }
+            if (run.length() > 0) {
+                parts.add(segment(run, inDigits));
+            }
+            return parts.toArray();
+        }
+
+        private Object segment(StringBuilder run, boolean isDigits) {
+            if (!isDigits) {
+                return getCollator().getCollationKey(run.toString());
+            }
+
+            int firstSignificant = 0;
+            while (firstSignificant < run.length() - 1 && run.charAt(firstSignificant) == '0') {
+                firstSignificant++;
+            }
+            return run.substring(firstSignificant);
+        }
+
+        @Override
+        public int compareTo(SortKey other) {
+            int length = Math.min(segments.length, other.segments.length);
+            for (int i = 0; i < length; i++) {
+                int result = compareSegments(segments[i], other.segments[i]);
+                if (result != 0) {
+                    return result;
+                }
+            }
+            if (segments.length != other.segments.length) {
+                return segments.length - other.segments.length;
+            }
+            return segments.length == 1 && segments[0] == wholeKey ? 0 : wholeKey.compareTo(other.wholeKey);
+        }
+
+        private int compareSegments(Object a, Object b) {
+            boolean aIsNumber = a instanceof String;
+            boolean bIsNumber = b instanceof String;
+
+            if (aIsNumber && bIsNumber) {
+                String x = (String) a;
+                String y = (String) b;
+                //With the leading zeros gone, a longer number is a bigger number
+                if (x.length() != y.length()) {
+                    return x.length() - y.length();
+                }
+                return x.compareTo(y);
+            } else if (aIsNumber) {
+                return -1;
+            } else if (bIsNumber) {
+                return 1;
+            } else {
+                return ((CollationKey) a).compareTo((CollationKey) b);
+            }
+        }
+    }
+}
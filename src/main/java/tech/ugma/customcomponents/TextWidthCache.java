@@ -0,0 +1,170 @@
+package tech.ugma.customcomponents;
+
+import javafx.collections.ListChangeListener;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/**
+ * Keeps track of how wide the widest item's text is, so that sizing the popup doesn't mean measuring every
+ * item.
+ * <p>
+ * Every item's text is measured once, the first time the widest is asked for. After that, each added item is
+ * measured as it's added, and each removed one is measured again as it's removed (the same text in the same
+ * font always comes out the same width), so the widths don't have to be stored per item. They're kept in
+ * order, along with how many items are that wide, so the widest is always at the end.
+ * <p>
+ * When the whole list is replaced at once (which is how a batch of changes arrives), only the items that
+ * are actually new are measured: the old and new lists are compared by value first, and whatever's in both
+ * is left as it is. Anything that changes every item's text or width at once (a new font or converter)
+ * means starting over, the next time the widest is asked for.
+ * <p>
+ * Only used on the JavaFX Application Thread.
+ *
+ * @param <T> the type of the items
+ */
+class TextWidthCache<T> implements ListChangeListener<T> {
+
+    /**
+     * Turns an item into the text that's shown for it.
+     */
+    private final Function<? super T, String> textOf;
+
+    /**
+     * Does the measuring. It's never shown anywhere.
+     */
+    private final Text measurer = new Text();
+
+    /**
+     * Every width, with how many items are that wide.
+     */
+    private final TreeMap<Double, Integer> widths = new TreeMap<>();
+
+    /**
+     * False until everything's been measured, and again once something makes the widths wrong.
+     */
+    private boolean valid;
+
+    TextWidthCache(Function<? super T, String> textOf) {
+        this.textOf = textOf;
+    }
+
+    /**
+     * Measures text in a different font from now on.
+     */
+    void setFont(Font font) {
+        if (font != null && !font.equals(measurer.getFont())) {
+            measurer.setFont(font);
+            invalidate();
+        }
+    }
+
+    /**
+     * Forgets every width, so they're measured again the next time the widest is asked for.
+     */
+    void invalidate() {
+        valid = false;
+        widths.clear();
+    }
+
+    /**
+     * @return true if every item's been measured, so the widest is known without measuring anything.
+     */
+    boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * @param items the items being kept track of (only looked at if they haven't all been measured yet)
+     * @return the width of the widest item's text, or 0 if there aren't any items.
+     */
+    double getMaxWidth(List<? extends T> items) {
+        if (!valid) {
+            for (T item : items) {
+                count(item, 1);
+            }
+            valid = true;
+        }
+        return widths.isEmpty() ? 0 : widths.lastKey();
+    }
+
+    /**
+     * @return how wide the text is, in the font being used.
+     */
+    double measure(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        measurer.setText(text);
+        return measurer.getLayoutBounds().getWidth();
+    }
+
+    @Override
+    public void onChanged(Change<? extends T> c) {
+        if (!valid) {
+            //Nothing to keep up to date; it'll all be measured when it's needed.
+            return;
+        }
+
+        while (c.next()) {
+            if (c.wasPermutated()) {
+                continue;
+            }
+            if (c.wasUpdated()) {
+                //The old text is gone, so there's no telling how wide it was
+                invalidate();
+                return;
+            }
+
+            if (c.wasReplaced()) {
+                countDifference(c.getRemoved(), c.getAddedSubList());
+                continue;
+            }
+            for (T removed : c.getRemoved()) {
+                count(removed, -1);
+            }
+            for (T added : c.getAddedSubList()) {
+                count(added, 1);
+            }
+        }
+    }
+
+    /**
+     * Counts what a replacement took out and put in, measuring only the items that are in one but not the other.
+     * (A batch of changes replaces the whole list, but most of it is the same items as before.)
+     */
+    private void countDifference(List<? extends T> removed, List<? extends T> added) {
+        Map<T, Integer> left = new HashMap<>();
+        for (T item : removed) {
+            left.merge(item, 1, Integer::sum);
+        }
+        for (T item : added) {
+            Integer count = left.get(item);
+            if (count == null) {
+                count(item, 1);
+            } else if (count == 1) {
+                left.remove(item);
+            } else {
+                left.put(item, count - 1);
+            }
+        }
+        for (Map.Entry<T, Integer> gone : left.entrySet()) {
+            count(gone.getKey(), -gone.getValue());
+        }
+    }
+
+    private void count(T item, int change) {
+        double width = item == null ? 0 : measure(textOf.apply(item));
+        int count = widths.getOrDefault(width, 0) + change;
+        if (count > 0) {
+            widths.put(width, count);
+        } else {
+            widths.remove(width);
+        }
+    }
+}
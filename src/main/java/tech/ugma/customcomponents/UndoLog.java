@@ -0,0 +1,374 @@
+package tech.ugma.customcomponents;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+/**
+ * Remembers the last few additions and removals, so they can be undone (and redone).
+ * <p>
+ * Only what changed is remembered: whether it was an addition or a removal, the item, and where it was.
+ * Those go into a ring buffer of a fixed size, so the memory it takes is the same no matter how long the
+ * list is. When it's full, the oldest step is forgotten to make room.
+ * <p>
+ * Changes that belong together (like everything done in one {@link AddRemoveItemModel#updateItems}) are
+ * one step, and are undone together. A step too big to fit in the buffer can't be undone, so recording one
+ * clears the history.
+ *
+ * @param <T> the type of the items
+ */
+class UndoLog<T> {
+
+    /**
+     * How many additions and removals are remembered, unless you say otherwise.
+     */
+    static final int DEFAULT_CAPACITY = 128;
+
+    /*
+     * The ring buffer. Entry i (counting from the oldest) is at (start + i) % capacity.
+     */
+    private boolean[] additions;
+    private Object[] items;
+    private int[] indices;
+    private long[] steps;
+
+    private int start;
+
+    /**
+     * How many entries there are, undoable or redoable.
+     */
+    private int size;
+
+    /**
+     * How many entries (from the oldest) have been done, and so can be undone. The ones after them can be redone.
+     */
+    private int done;
+
+    private long nextStep;
+
+    /**
+     * The step everything's being recorded as, while one's open; -1 otherwise.
+     */
+    private long openStep = -1;
+
+    /**
+     * Whether the open step didn't fit, so the rest of it isn't worth recording either.
+     */
+    private boolean openStepOverflowed;
+
+    /**
+     * The step the last addition or removal was recorded as; -1 if nothing's been recorded yet.
+     */
+    private long lastRecordedStep = -1;
+
+    UndoLog(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Remembers an addition or a removal. Anything that could have been redone is forgotten.
+     *
+     * @param addition true if the item was added, false if it was removed
+     * @param item     the item
+     * @param index    where it was added, or where it was removed from
+     */
+    void record(boolean addition, T item, int index) {
+        if (capacity() == 0 || openStepOverflowed) {
+            return;
+        }
+
+        //Doing something new means there's nothing to redo anymore
+        for (int i = done; i < size; i++) {
+            items[slot(i)] = null;
+        }
+        size = done;
+
+        long step = openStep >= 0 ? openStep : nextStep++;
+        if (size == capacity()) {
+            if (steps[start] == step) {
+                //This one step is bigger than the whole buffer
+                clear();
+                openStepOverflowed = openStep >= 0;
+                return;
+            }
+            forgetOldestStep();
+        }
+
+        int slot = slot(size);
+        additions[slot] = addition;
+        items[slot] = item;
+        indices[slot] = index;
+        steps[slot] = step;
+        size++;
+        done++;
+        lastRecordedStep = step;
+    }
+
+    /**
+     * Everything recorded until {@link #endStep()} is one step.
+     */
+    void beginStep() {
+        openStep = nextStep++;
+        openStepOverflowed = false;
+    }
+
+    void endStep() {
+        openStep = -1;
+        openStepOverflowed = false;
+    }
+
+    /**
+     * @return true if a step's open, so whatever's recorded now goes into it
+     */
+    boolean isStepOpen() {
+        return openStep >= 0;
+    }
+
+    private void forgetOldestStep() {
+        long oldest = steps[start];
+        while (size > 0 && steps[start] == oldest) {
+            items[start] = null;
+            start = (start + 1) % capacity();
+            size--;
+            done--;
+        }
+    }
+
+    /**
+     * @return the step the last addition or removal was recorded as, or -1 if nothing's been recorded yet.
+     * Comparing it before and after a change tells whether (and as what) the change was recorded.
+     */
+    long lastRecordedStep() {
+        return lastRecordedStep;
+    }
+
+    /**
+     * Forgets a step altogether, wherever it is in the history (done or undone), as if it had never been
+     * recorded. This is for a change that turned out not to have happened, like an addition that couldn't be
+     * saved and was taken back out.
+     * <p>
+     * Anything recorded after it stays, at the positions it was recorded at; if those are off by one now,
+     * undoing falls back to finding the item by value.
+     */
+    void forget(long step) {
+        int kept = 0;
+        int keptDone = 0;
+        for (int i = 0; i < size; i++) {
+            int from = slot(i);
+            if (steps[from] == step) {
+                continue;
+            }
+            if (kept != i) {
+                int to = slot(kept);
+                additions[to] = additions[from];
+                items[to] = items[from];
+                indices[to] = indices[from];
+                steps[to] = steps[from];
+            }
+            kept++;
+            if (i < done) {
+                keptDone++;
+            }
+        }
+        for (int i = kept; i < size; i++) {
+            items[slot(i)] = null;
+        }
+        size = kept;
+        done = keptDone;
+    }
+
+    boolean canUndo() {
+        return done > 0;
+    }
+
+    boolean canRedo() {
+        return done < size;
+    }
+
+    /**
+     * Steps back over the last step.
+     *
+     * @return what has to be done to undo it, in the order it has to be done in (empty if there's nothing to undo)
+     */
+    @SuppressWarnings("unchecked")
+    List<Edit<T>> undo() {
+        List<Edit<T>> edits = new ArrayList<>();
+        if (done == 0) {
+            return edits;
+        }
+
+        long step = steps[slot(done - 1)];
+        while (done > 0 && steps[slot(done - 1)] == step) {
+            int slot = slot(--done);
+            //Undoing an addition is a removal, and the other way around
+            edits.add(new Edit<>(!additions[slot], (T) items[slot], indices[slot]));
+        }
+        return edits;
+    }
+
+    /**
+     * Steps forward over the next step that was undone.
+     *
+     * @return what has to be done to redo it, in order (empty if there's nothing to redo)
+     */
+    @SuppressWarnings("unchecked")
+    List<Edit<T>> redo() {
+        List<Edit<T>> edits = new ArrayList<>();
+        if (done == size) {
+            return edits;
+        }
+
+        long step = steps[slot(done)];
+        while (done < size && steps[slot(done)] == step) {
+            int slot = slot(done++);
+            edits.add(new Edit<>(additions[slot], (T) items[slot], indices[slot]));
+        }
+        return edits;
+    }
+
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            items[slot(i)] = null;
+        }
+        start = 0;
+        size = 0;
+        done = 0;
+    }
+
+    int capacity() {
+        return items.length;
+    }
+
+    /**
+     * Sets how many additions and removals are remembered. This forgets everything remembered so far.
+     *
+     * @param capacity how many to remember; 0 to remember nothing
+     */
+    void setCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("The undo history can't hold less than nothing.");
+        }
+        additions = new boolean[capacity];
+        items = new Object[capacity];
+        indices = new int[capacity];
+        steps = new long[capacity];
+        start = 0;
+        size = 0;
+        done = 0;
+    }
+
+    private int slot(int entry) {
+        return (start + entry) % capacity();
+    }
+
+    /**
+     * @return a list that makes its changes to the given one, remembering each of them as it goes.
+     */
+    List<T> recording(List<T> list) {
+        return new RecordingList<>(list, this);
+    }
+
+    /**
+     * One addition or removal to make.
+     */
+    static final class Edit<T> {
+        final boolean addition;
+        final T item;
+        final int index;
+
+        Edit(boolean addition, T item, int index) {
+            this.addition = addition;
+            this.item = item;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Hands its changes on to another list, recording each of them. The bulk removals are done in one pass,
+     * like ArrayList does them, instead of one item at a time.
+     */
+    private static final class RecordingList<T> extends AbstractList<T> {
+
+        private final List<T> list;
+        private final UndoLog<T> log;
+
+        RecordingList(List<T> list, UndoLog<T> log) {
+            this.list = list;
+            this.log = log;
+        }
+
+        @Override
+        public T get(int index) {
+            return list.get(index);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+
+        @Override
+        public T set(int index, T item) {
+            T replaced = list.set(index, item);
+            log.record(false, replaced, index);
+            log.record(true, item, index);
+            return replaced;
+        }
+
+        @Override
+        public void add(int index, T item) {
+            list.add(index, item);
+            log.record(true, item, index);
+        }
+
+        @Override
+        public T remove(int index) {
+            T removed = list.remove(index);
+            log.record(false, removed, index);
+            return removed;
+        }
+
+        @Override
+        public boolean removeIf(Predicate<? super T> filter) {
+            Objects.requireNonNull(filter);
+
+            //Work out what's going, recording each one where it'll be when its turn to be removed comes
+            BitSet going = new BitSet(list.size());
+            int removedSoFar = 0;
+            for (int i = 0; i < list.size(); i++) {
+                T item = list.get(i);
+                if (filter.test(item)) {
+                    going.set(i);
+                    log.record(false, item, i - removedSoFar++);
+                }
+            }
+            if (removedSoFar == 0) {
+                return false;
+            }
+
+            int[] position = {0};
+            return list.removeIf(item -> going.get(position[0]++));
+        }
+
+        @Override
+        public boolean removeAll(Collection<?> c) {
+            Objects.requireNonNull(c);
+            return removeIf(c::contains);
+        }
+
+        @Override
+        public boolean retainAll(Collection<?> c) {
+            Objects.requireNonNull(c);
+            return removeIf(item -> !c.contains(item));
+        }
+
+        @Override
+        public void clear() {
+            removeIf(item -> true);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package tech.ugma.customcomponents;
+
+import javafx.util.Duration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Keeps score of how often, and how recently, each item has been picked, so the most used items can go first.
+ * <p>
+ * Every pick counts, but older picks count for less: a pick's worth halves every half-life (a week, unless
+ * you say otherwise). An item picked every day beats one picked once this morning, and an item nobody has
+ * picked in months slowly sinks back down.
+ * <p>
+ * Rather than going through every item to decay its score as time goes by, each score is kept as the
+ * (base 2) logarithm of the sum of its picks' worth at a fixed point in the past, with time counted in
+ * half-lives. Decaying would scale every score by the same amount, so it doesn't change which one's bigger,
+ * and it never has to happen at all. A pick just adds its worth to the sum, which (in logarithms) is a couple
+ * of floating point operations. Items that have never been picked score negative infinity, so they come last.
+ * <p>
+ * Scores are kept by the items' text, so they can be saved to a file and loaded again next time
+ * ({@link #save(Path)} and {@link #load(Path)}) without having to save the items themselves.
+ *
+ * @param <T> the type of the items
+ */
+public class UsageScores<T> {
+
+    private static final double DEFAULT_HALF_LIFE = Duration.hours(24 * 7).toMillis();
+
+    /**
+     * Turns items into the text their scores are kept under.
+     */
+    private final Function<? super T, String> textOf;
+
+    /**
+     * Each item's score (see the class description), by its text.
+     */
+    private final Map<String, Double> scores = new HashMap<>();
+
+    /**
+     * Each item's score, by the item itself, so that comparing items doesn't mean converting them to text.
+     */
+    private final Map<T, Double> cache = new HashMap<>();
+
+    private double halfLife = DEFAULT_HALF_LIFE;
+
+    UsageScores(Function<? super T, String> textOf) {
+        this.textOf = textOf;
+    }
+
+    /**
+     * Counts a pick of the item, as of now.
+     *
+     * @param item the item that was picked
+     */
+    public void recordUse(T item) {
+        double now = System.currentTimeMillis() / halfLife;
+        double score = logSum(getScore(item), now);
+        scores.put(textOf.apply(item), score);
+        cache.put(item, score);
+    }
+
+    /**
+     * @return the item's score; bigger is more used. Only useful for comparing with other items' scores.
+     */
+    public double getScore(T item) {
+        Double score = cache.get(item);
+        if (score == null) {
+            score = scores.getOrDefault(textOf.apply(item), Double.NEGATIVE_INFINITY);
+            cache.put(item, score);
+        }
+        return score;
+    }
+
+    /**
+     * Puts more used items before less used ones.
+     */
+    int compare(T item1, T item2) {
+        return Double.compare(getScore(item2), getScore(item1));
+    }
+
+    /**
+     * log2(2^a + 2^b), without overflowing.
+     */
+    private static double logSum(double a, double b) {
+        if (a == Double.NEGATIVE_INFINITY) {
+            return b;
+        }
+        double larger = Math.max(a, b);
+        return larger + Math.log1p(Math.pow(2, Math.min(a, b) - larger)) / Math.log(2);
+    }
+
+    /**
+     * Lets go of an item's cached score (it's been removed). Its score is still kept under its text.
+     */
+    void evict(T item) {
+        cache.remove(item);
+    }
+
+    /**
+     * Lets go of the cached scores of every item that isn't one of these.
+     */
+    void retainOnly(Collection<?> items) {
+        cache.keySet().retainAll(items instanceof Set ? items : new HashSet<>(items));
+    }
+
+    /**
+     * The way items are turned into text has changed, so the scores have to be looked up again.
+     */
+    void textChanged() {
+        cache.clear();
+    }
+
+    /**
+     * Forgets every item's score.
+     */
+    public void clear() {
+        scores.clear();
+        cache.clear();
+    }
+
+    public Duration getHalfLife() {
+        return Duration.millis(halfLife);
+    }
+
+    /**
+     * Sets how long it takes for a pick to count for half as much. The scores so far are kept as they are.
+     *
+     * @param halfLife how long until a pick is worth half as much (a week by default)
+     */
+    public void setHalfLife(Duration halfLife) {
+        if (halfLife == null || !(halfLife.toMillis() > 0)) {
+            throw new IllegalArgumentException("The half-life has to be longer than nothing.");
+        }
+
+        //Keep everyone's score the same, just counted in the new half-lives
+        double rescale = this.halfLife / halfLife.toMillis();
+        scores.replaceAll((text, score) -> score * rescale);
+        cache.clear();
+        this.halfLife = halfLife.toMillis();
+    }
+
+    /**
+     * Saves the scores to a file (replacing it all at once, so there's never a half-written file).
+     * <p>
+     * Each score is saved as the time a single pick would have had to happen to be worth as much, so a
+     * file can still be loaded after the half-life has been changed.
+     *
+     * @param file where to save them
+     * @throws IOException if the file can't be written
+     */
+    public void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Double> score : scores.entrySet()) {
+            properties.setProperty(score.getKey(), Double.toString(score.getValue() * halfLife));
+        }
+
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            properties.store(out, "AddRemoveComboBox usage scores");
+        }
+        try {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Loads scores saved by {@link #save(Path)}, adding them to any picks counted so far. If the file
+     * doesn't exist (it's the first time, say), nothing happens.
+     * <p>
+     * If the items are being sorted by usage, they'll need to be put in order again afterwards; see
+     * {@link AddRemoveItemModel#loadUsage(Path)}.
+     *
+     * @param file where the scores were saved
+     * @throws IOException if the file exists but can't be read
+     */
+    public void load(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+
+        for (String text : properties.stringPropertyNames()) {
+            try {
+                double score = Double.parseDouble(properties.getProperty(text)) / halfLife;
+                scores.merge(text, score, UsageScores::logSum);
+            } catch (NumberFormatException e) {
+                //Someone's been editing the file; skip whatever doesn't make sense.
+            }
+        }
+        cache.clear();
+    }
+}